@@ -0,0 +1,273 @@
+package fabric4j;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import protos.Openchain.Block;
+import tools.Flow;
+
+/**
+ * The Class BlockPublisher.
+ *
+ * Publishes the blocks of a range, or the blocks of the chain as they are
+ * added, to Subscribers. A block is only fetched once a Subscriber has asked
+ * for it, so a slow Subscriber slows down the fetching instead of piling up
+ * blocks in memory. The blocks are fetched one after the other, in order, on
+ * the executor.
+ * <p/>
+ * Each Subscriber gets its own subscription, starting at the first block.
+ * A failed fetch ends the subscription with onError.
+ *
+ * @author Quentin Le Sceller
+ */
+public class BlockPublisher implements Flow.Publisher<Block> {
+
+    /** The default executor, whose idle threads die after a minute. */
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "fabric4j-publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** The blockchain. */
+    private final IBlockchain blockchain;
+
+    /** The first block number. */
+    private final long from;
+
+    /** The end block number, exclusive, or -1 to follow the chain. */
+    private final long to;
+
+    /** The wait between two polls of the height, in milliseconds. */
+    private final long pollInterval;
+
+    /** The executor fetching the blocks. */
+    private final Executor executor;
+
+    /**
+     * Instantiates a new block publisher of the blocks in [from, to).
+     *
+     * @param blockchain
+     *            the blockchain
+     * @param from
+     *            the first block number
+     * @param to
+     *            the end block number, exclusive
+     */
+    public BlockPublisher(IBlockchain blockchain, long from, long to) {
+        this(blockchain, from, to, 0, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Instantiates a new block publisher of the blocks from a block number
+     * onwards, which follows the chain as blocks are added.
+     *
+     * @param blockchain
+     *            the blockchain
+     * @param from
+     *            the first block number
+     * @param pollInterval
+     *            the wait between two polls of the height, in milliseconds,
+     *            positive
+     * @return the block publisher
+     */
+    public static BlockPublisher tail(IBlockchain blockchain, long from, long pollInterval) {
+        return new BlockPublisher(blockchain, from, -1, pollInterval, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Instantiates a new block publisher.
+     *
+     * @param blockchain
+     *            the blockchain
+     * @param from
+     *            the first block number
+     * @param to
+     *            the end block number, exclusive, or -1 to follow the chain
+     * @param pollInterval
+     *            the wait between two polls of the height when following the
+     *            chain, in milliseconds, positive if to is -1
+     * @param executor
+     *            the executor fetching the blocks
+     */
+    public BlockPublisher(IBlockchain blockchain, long from, long to, long pollInterval, Executor executor) {
+        if (from < 0 || to < -1 || pollInterval < 0) {
+            throw new IllegalArgumentException("Negative block number or poll interval.");
+        }
+        if (to == -1 && pollInterval == 0) {
+            throw new IllegalArgumentException("Following the chain needs a positive poll interval.");
+        }
+        this.blockchain = blockchain;
+        this.from = from;
+        this.to = to;
+        this.pollInterval = pollInterval;
+        this.executor = executor;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see tools.Flow.Publisher#subscribe(tools.Flow.Subscriber)
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super Block> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Null subscriber.");
+        }
+        BlockSubscription subscription = new BlockSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        // Completes an empty range without waiting for a request.
+        subscription.drain();
+    }
+
+    /**
+     * The Class BlockSubscription.
+     *
+     * Fetches the blocks of one Subscriber. The drain loop runs on the
+     * executor, one run at a time, and signals the Subscriber from there.
+     */
+    private final class BlockSubscription implements Flow.Subscription, Runnable {
+
+        /** The subscriber. */
+        private final Flow.Subscriber<? super Block> subscriber;
+
+        /** The number of blocks requested and not sent yet. */
+        private final AtomicLong demand = new AtomicLong();
+
+        /** The number of drains asked for while one runs. */
+        private final AtomicInteger pendingDrains = new AtomicInteger();
+
+        /** The next block number. Only accessed by the drain loop. */
+        private long next = from;
+
+        /** The height of the chain last seen. Only accessed by the drain loop. */
+        private long height;
+
+        /** The failure of a non positive request, reported by the drain loop. */
+        private volatile IllegalArgumentException badRequest;
+
+        /** Whether the subscription is cancelled or done. */
+        private volatile boolean done;
+
+        BlockSubscription(Flow.Subscriber<? super Block> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see tools.Flow.Subscription#request(long)
+         */
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                badRequest = new IllegalArgumentException("Non positive request: " + n);
+            } else {
+                long current;
+                long updated;
+                do {
+                    current = demand.get();
+                    updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!demand.compareAndSet(current, updated));
+            }
+            drain();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see tools.Flow.Subscription#cancel()
+         */
+        @Override
+        public void cancel() {
+            done = true;
+        }
+
+        /**
+         * Runs the drain loop on the executor, unless it is already running;
+         * then the running loop goes round once more.
+         */
+        void drain() {
+            if (pendingDrains.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                try {
+                    send();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    fail(e);
+                } catch (RuntimeException e) {
+                    fail(e);
+                }
+                missed = pendingDrains.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        /**
+         * Sends as many blocks as requested and available.
+         *
+         * @throws InterruptedException
+         *             if interrupted while waiting for a new block
+         */
+        private void send() throws InterruptedException {
+            while (!done) {
+                if (badRequest != null) {
+                    fail(badRequest);
+                    return;
+                }
+                if (to >= 0 && next >= to) {
+                    done = true;
+                    subscriber.onComplete();
+                    return;
+                }
+                long requested = demand.get();
+                if (requested == 0) {
+                    return;
+                }
+                if (to < 0 && next >= height) {
+                    height = blockchain.getBlockchainInfo().getHeight();
+                    if (next >= height) {
+                        Thread.sleep(pollInterval);
+                        continue;
+                    }
+                }
+                Block block = blockchain.getBlock((int) next);
+                if (done) {
+                    return;
+                }
+                next++;
+                if (requested != Long.MAX_VALUE) {
+                    demand.decrementAndGet();
+                }
+                subscriber.onNext(block);
+            }
+        }
+
+        /**
+         * Ends the subscription with a failure.
+         *
+         * @param failure
+         *            the failure
+         */
+        private void fail(Throwable failure) {
+            if (!done) {
+                done = true;
+                subscriber.onError(failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package fabric4j;
+
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+import objects.exception.BlockchainException;
+import protos.Openchain.Block;
+
+/**
+ * The Class BlockSpliterator.
+ *
+ * A Spliterator over the blocks of a range, which splits the range in halves
+ * so that a parallel stream fetches and decodes the blocks on several
+ * threads. All the splits of a range share a bound on the blocks being
+ * fetched at once, so that a parallel stream does not flood the peers. The
+ * bound can also be shared between spliterators, as the blockStream of a
+ * Blockchain does, so that concurrent streams on the same peer share it.
+ * <p/>
+ * While a fetch waits for the peer, the ForkJoinPool running the stream may
+ * start another thread, so that the other threads keep decoding and
+ * processing blocks; the bound on the fetches also bounds those threads.
+ *
+ * @author Quentin Le Sceller
+ */
+public class BlockSpliterator implements Spliterator<Block> {
+
+    /** The blockchain. */
+    private final IBlockchain blockchain;
+
+    /** The permits of the fetches in flight, shared by the splits. */
+    private final Semaphore permits;
+
+    /** The next block number. */
+    private long next;
+
+    /** The end block number, exclusive. */
+    private final long end;
+
+    /**
+     * Instantiates a new block spliterator over the blocks in [from, to).
+     *
+     * @param blockchain
+     *            the blockchain
+     * @param from
+     *            the first block number
+     * @param to
+     *            the end block number, exclusive
+     * @param maxInFlight
+     *            the max number of blocks fetched at once
+     */
+    public BlockSpliterator(IBlockchain blockchain, long from, long to, int maxInFlight) {
+        if (from < 0 || to < from || maxInFlight < 1) {
+            throw new IllegalArgumentException("Bad range or bound.");
+        }
+        this.blockchain = blockchain;
+        this.next = from;
+        this.end = to;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Instantiates a new block spliterator over the blocks in [from, to),
+     * sharing the bound on the blocks fetched at once with other
+     * spliterators.
+     *
+     * @param blockchain
+     *            the blockchain
+     * @param from
+     *            the first block number
+     * @param to
+     *            the end block number, exclusive
+     * @param permits
+     *            the permits of the fetches in flight, one per block fetched
+     *            at once
+     */
+    public BlockSpliterator(IBlockchain blockchain, long from, long to, Semaphore permits) {
+        if (from < 0 || to < from) {
+            throw new IllegalArgumentException("Bad range.");
+        }
+        this.blockchain = blockchain;
+        this.next = from;
+        this.end = to;
+        this.permits = permits;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.Spliterator#tryAdvance(java.util.function.Consumer)
+     */
+    @Override
+    public boolean tryAdvance(Consumer<? super Block> action) {
+        if (next >= end) {
+            return false;
+        }
+        action.accept(fetch(next++));
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.Spliterator#forEachRemaining(java.util.function.Consumer)
+     */
+    @Override
+    public void forEachRemaining(Consumer<? super Block> action) {
+        while (next < end) {
+            action.accept(fetch(next++));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.Spliterator#trySplit()
+     */
+    @Override
+    public Spliterator<Block> trySplit() {
+        long size = end - next;
+        if (size < 2) {
+            return null;
+        }
+        long middle = next + size / 2;
+        BlockSpliterator prefix = new BlockSpliterator(blockchain, next, middle, permits);
+        next = middle;
+        return prefix;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.Spliterator#estimateSize()
+     */
+    @Override
+    public long estimateSize() {
+        return end - next;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.Spliterator#characteristics()
+     */
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+
+    /**
+     * Fetches a block once a permit is free. The permit is waited for
+     * plainly, but the fetch itself is a managed block, so that the pool may
+     * compensate for the thread waiting on the peer.
+     *
+     * @param blockNumber
+     *            the block number
+     * @return the block
+     */
+    private Block fetch(long blockNumber) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BlockchainException("Interrupted while waiting to fetch a block.", e);
+        }
+        try {
+            Fetch fetch = new Fetch(blockNumber);
+            ForkJoinPool.managedBlock(fetch);
+            return fetch.block;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BlockchainException("Interrupted while fetching a block.", e);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * The Class Fetch.
+     *
+     * The fetch of a block, run as a ForkJoinPool managed block.
+     */
+    private final class Fetch implements ForkJoinPool.ManagedBlocker {
+
+        /** The block number. */
+        private final long blockNumber;
+
+        /** The block, null until fetched. */
+        private Block block;
+
+        Fetch(long blockNumber) {
+            this.blockNumber = blockNumber;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.util.concurrent.ForkJoinPool.ManagedBlocker#block()
+         */
+        @Override
+        public boolean block() {
+            block = blockchain.getBlock((int) blockNumber);
+            return true;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.util.concurrent.ForkJoinPool.ManagedBlocker#isReleasable()
+         */
+        @Override
+        public boolean isReleasable() {
+            return block != null;
+        }
+    }
+}
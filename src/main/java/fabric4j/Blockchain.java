@@ -2,54 +2,474 @@ package fabric4j;
 
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.ArrayList;
-
-import com.google.protobuf.ByteString;
-import com.google.protobuf.Timestamp;
-
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.google.protobuf.Message;
+
+import ledger.BlockTimestampIndex;
+import ledger.ChaincodeIndex;
+import ledger.TransactionIndex;
+import objects.exception.BlockchainException;
+import objects.exception.CircuitOpenException;
 import objects.exception.JSONException;
+import objects.exception.PeerIOException;
+import objects.exception.RequestRejectedException;
 import objects.json.JSONArray;
 import objects.json.JSONObject;
-import protos.Chaincode.ConfidentialityLevel;
-import protos.Openchain;
+import objects.json.JSONPathScanner;
 import protos.Openchain.Block;
 import protos.Openchain.BlockchainInfo;
-import protos.Openchain.BlockchainInfo.Builder;
-import protos.Openchain.NonHashData;
-import protos.Openchain.PeerEndpoint;
-import protos.Openchain.PeerEndpoint.Type;
-import protos.Openchain.PeerID;
 import protos.Openchain.PeersMessage;
 import protos.Openchain.Transaction;
+import tools.ByteStringPool;
+import tools.CircuitBreaker;
+import tools.ConcurrencyLimiter;
+import tools.Flow;
+import tools.JSONProtoCodec;
+import tools.RequestClass;
+import tools.RequestScheduler;
+import tools.RetryBudget;
+import tools.TLSConfig;
 import tools.URLTools;
 
 /**
  * The Class Blockchain.
  * 
+ * A Blockchain is immutable once built: its host, TLS mode, credentials,
+ * timeouts and request limit are set through a {@link Builder}. A single
+ * instance can be shared by any number of threads.
+ * <p/>
+ * Failed requests throw a BlockchainException. Requests go through a
+ * circuit breaker, which fails them at once while the peer keeps failing, and
+ * the reads that fail for a transient reason are retried with a jittered
+ * exponential backoff, within a retry budget. A block or transaction that
+ * does not exist is returned as the empty default instance. Deploys and
+ * invokes wait for a ConcurrencyLimiter, whose limit follows the latency of
+ * the peer. When the requests in flight are bounded, a RequestScheduler shares
+ * them between the interactive requests, the invokes and the bulk block
+ * reads, so that a backfill cannot starve the queries.
+ * 
  * @author Quentin Le Sceller
  */
 public class Blockchain implements IBlockchain {
 
+    /** The max number of blocks the block streams fetch at once. */
+    private static final int STREAM_FETCHES = 8;
+
+    /** The max number of transactions fetched at once by getTransactions. */
+    private static final int LOOKUP_FETCHES = 8;
+
     /** The server. */
-    private String server;
+    private final String server;
 
     /** The url tools. */
-    private URLTools urlTools;
+    private final URLTools urlTools;
+
+    /** The json codec. */
+    private final JSONProtoCodec codec;
+
+    /** The timestamp index. */
+    private final BlockTimestampIndex timestampIndex;
+
+    /** The transaction index, null for none. */
+    private final TransactionIndex transactionIndex;
+
+    /** The chaincode index, null for none. */
+    private final ChaincodeIndex chaincodeIndex;
 
     /** The alert json not found. */
-    private boolean alertJSONNotFound;
+    private final boolean alertJSONNotFound;
 
     /** The use open ssl. */
-    private boolean useOpenSSL;
+    private final boolean useOpenSSL;
 
     /** The security enabled. */
-    private boolean securityEnabled;
+    private final boolean securityEnabled;
 
     /** The enroll id. */
-    private String enrollID;
+    private final String enrollID;
 
     /** The enroll secret. */
-    private String enrollSecret;
+    private final String enrollSecret;
+
+    /** The circuit breaker. */
+    private final CircuitBreaker circuitBreaker;
+
+    /** The retry budget. */
+    private final RetryBudget retryBudget;
+
+    /** The max number of retries of a read. */
+    private final int maxRetries;
+
+    /** The base retry backoff, in milliseconds. */
+    private final long retryBackoff;
+
+    /** The limiter of deploys and invokes, null for no limit. */
+    private final ConcurrencyLimiter invokeLimiter;
+
+    /** The request scheduler, null for no limit. */
+    private final RequestScheduler scheduler;
+
+    /** The permits of the blocks fetched by the block streams, shared by the streams. */
+    private final Semaphore streamPermits = new Semaphore(STREAM_FETCHES);
+
+    /**
+     * The Class Builder.
+     * 
+     * Collects the configuration of a Blockchain. A builder is not thread
+     * safe, but the Blockchain it builds is.
+     */
+    public static final class Builder {
+
+        /** The host. */
+        private String host;
+
+        /** The port. */
+        private int port;
+
+        /** The use open ssl. */
+        private boolean useOpenSSL;
+
+        /** The TLS config. */
+        private TLSConfig tlsConfig;
+
+        /** The enroll id. */
+        private String enrollID;
+
+        /** The enroll secret. */
+        private String enrollSecret;
+
+        /** The connect timeout, in milliseconds. */
+        private int connectTimeout;
+
+        /** The read timeout, in milliseconds. */
+        private int readTimeout;
+
+        /** The max number of requests in flight. */
+        private int maxConcurrentRequests;
+
+        /** The alert json not found. */
+        private boolean alertJSONNotFound = true;
+
+        /** The json codec. */
+        private JSONProtoCodec codec;
+
+        /** The timestamp index. */
+        private BlockTimestampIndex timestampIndex;
+
+        /** The transaction index. */
+        private TransactionIndex transactionIndex;
+
+        /** The chaincode index. */
+        private ChaincodeIndex chaincodeIndex;
+
+        /** The circuit breaker. */
+        private CircuitBreaker circuitBreaker;
+
+        /** The retry budget. */
+        private RetryBudget retryBudget;
+
+        /** The max number of retries of a read. */
+        private int maxRetries = 2;
+
+        /** The base retry backoff, in milliseconds. */
+        private long retryBackoff = 50;
+
+        /** The limiter of deploys and invokes. */
+        private ConcurrencyLimiter invokeLimiter = new ConcurrencyLimiter();
+
+        /** The request scheduler. */
+        private RequestScheduler scheduler;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the host of the peer.
+         *
+         * @param host
+         *            the host name or ip
+         * @return this builder
+         */
+        public Builder setHost(String host) {
+            this.host = host;
+            return this;
+        }
+
+        /**
+         * Sets the REST port of the peer.
+         *
+         * @param port
+         *            the port
+         * @return this builder
+         */
+        public Builder setPort(int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * Sets whether to use https.
+         *
+         * @param useOpenSSL
+         *            true to use https
+         * @return this builder
+         */
+        public Builder setOpenSSL(boolean useOpenSSL) {
+            this.useOpenSSL = useOpenSSL;
+            return this;
+        }
+
+        /**
+         * Sets the TLS config of the https connections, for example to trust
+         * the certificate authority of the network. By default a Blockchain
+         * using https creates its own, with the JVM trust store, so that its
+         * connections share one SSLContext and resume TLS sessions. A TLS
+         * config requires https: build fails unless setOpenSSL(true) is set
+         * too.
+         *
+         * @param tlsConfig
+         *            the TLS config
+         * @return this builder
+         */
+        public Builder setTLSConfig(TLSConfig tlsConfig) {
+            this.tlsConfig = tlsConfig;
+            return this;
+        }
+
+        /**
+         * Sets the credentials, which enables security.
+         *
+         * @param enrollID
+         *            the enroll id
+         * @param enrollSecret
+         *            the enroll secret
+         * @return this builder
+         */
+        public Builder setCredentials(String enrollID, String enrollSecret) {
+            this.enrollID = enrollID;
+            this.enrollSecret = enrollSecret;
+            return this;
+        }
+
+        /**
+         * Sets the connect timeout.
+         *
+         * @param connectTimeout
+         *            the connect timeout, in milliseconds, 0 for none
+         * @return this builder
+         */
+        public Builder setConnectTimeout(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * Sets the read timeout.
+         *
+         * @param readTimeout
+         *            the read timeout, in milliseconds, 0 for none
+         * @return this builder
+         */
+        public Builder setReadTimeout(int readTimeout) {
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        /**
+         * Sets the max number of requests in flight to the peer; further
+         * requests wait for one to complete, in a RequestScheduler with the
+         * default request classes. Idle connections are kept in the JVM
+         * keep-alive cache, whose size is the http.maxConnections system
+         * property.
+         *
+         * @param maxConcurrentRequests
+         *            the max number of requests in flight, 0 for no limit
+         * @return this builder
+         */
+        public Builder setMaxConcurrentRequests(int maxConcurrentRequests) {
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        /**
+         * Sets whether to print an alert when a JSON response is missing.
+         *
+         * @param alertJSONNotFound
+         *            true to print the alert
+         * @return this builder
+         */
+        public Builder setAlertJSONNotFound(boolean alertJSONNotFound) {
+            this.alertJSONNotFound = alertJSONNotFound;
+            return this;
+        }
+
+        /**
+         * Sets the codec decoding the JSON responses, for example to change
+         * the encoding of some bytes fields.
+         *
+         * @param codec
+         *            the codec
+         * @return this builder
+         */
+        public Builder setCodec(JSONProtoCodec codec) {
+            this.codec = codec;
+            return this;
+        }
+
+        /**
+         * Sets the timestamp index used by getBlocksBetween, for example one
+         * loaded from a file.
+         *
+         * @param timestampIndex
+         *            the timestamp index
+         * @return this builder
+         */
+        public Builder setTimestampIndex(BlockTimestampIndex timestampIndex) {
+            this.timestampIndex = timestampIndex;
+            return this;
+        }
+
+        /**
+         * Sets the transaction index, which gets the transactions of the
+         * blocks and transactions fetched, and the transaction results of the
+         * blocks, and answers getTransaction and getTransactions before the
+         * peer. By default there is none.
+         *
+         * @param transactionIndex
+         *            the transaction index
+         * @return this builder
+         */
+        public Builder setTransactionIndex(TransactionIndex transactionIndex) {
+            this.transactionIndex = transactionIndex;
+            return this;
+        }
+
+        /**
+         * Sets the chaincode index, which gets the blocks fetched by getBlock.
+         * By default there is none.
+         *
+         * @param chaincodeIndex
+         *            the chaincode index
+         * @return this builder
+         */
+        public Builder setChaincodeIndex(ChaincodeIndex chaincodeIndex) {
+            this.chaincodeIndex = chaincodeIndex;
+            return this;
+        }
+
+        /**
+         * Sets the circuit breaker of the peer. By default the breaker opens
+         * for 10 seconds after 5 failures in a row.
+         *
+         * @param circuitBreaker
+         *            the circuit breaker
+         * @return this builder
+         */
+        public Builder setCircuitBreaker(CircuitBreaker circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        /**
+         * Sets the retry budget, which may be shared by several clients. By
+         * default a read out of ten may be retried.
+         *
+         * @param retryBudget
+         *            the retry budget
+         * @return this builder
+         */
+        public Builder setRetryBudget(RetryBudget retryBudget) {
+            this.retryBudget = retryBudget;
+            return this;
+        }
+
+        /**
+         * Sets the max number of retries of a read.
+         *
+         * @param maxRetries
+         *            the max number of retries, 0 to never retry
+         * @return this builder
+         */
+        public Builder setMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * Sets the base retry backoff. The n-th retry waits a random time
+         * below the base backoff times 2^n.
+         *
+         * @param retryBackoff
+         *            the base retry backoff, in milliseconds
+         * @return this builder
+         */
+        public Builder setRetryBackoff(long retryBackoff) {
+            this.retryBackoff = retryBackoff;
+            return this;
+        }
+
+        /**
+         * Sets the limiter of the deploys and invokes in flight, which adapts
+         * to the latency of the peer. By default the limit starts at 16 and
+         * stays between 1 and 256.
+         *
+         * @param invokeLimiter
+         *            the limiter, null for no limit
+         * @return this builder
+         */
+        public Builder setInvokeLimiter(ConcurrencyLimiter invokeLimiter) {
+            this.invokeLimiter = invokeLimiter;
+            return this;
+        }
+
+        /**
+         * Sets the request scheduler sharing the requests in flight to the
+         * peer between the request classes, for example to change the
+         * weights or queue sizes of the classes. It replaces the max number
+         * of concurrent requests.
+         *
+         * @param scheduler
+         *            the request scheduler
+         * @return this builder
+         */
+        public Builder setRequestScheduler(RequestScheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * Builds the blockchain.
+         *
+         * @return the blockchain
+         */
+        public Blockchain build() {
+            if (host == null) {
+                throw new IllegalStateException("The host is not set.");
+            }
+            if (tlsConfig != null && !useOpenSSL) {
+                throw new IllegalStateException("A TLS config is set but https is not enabled.");
+            }
+            return new Blockchain(this);
+        }
+    }
+
+    /**
+     * Creates a new builder.
+     *
+     * @return the builder
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
 
     /**
      * Instantiates a new open blockchain.
@@ -60,12 +480,7 @@ public class Blockchain implements IBlockchain {
      *            the port
      */
     public Blockchain(String IP, int port) {
-
-        server = IP + ":" + port;
-        urlTools = new URLTools();
-        useOpenSSL = false;
-        alertJSONNotFound = true;
-
+        this(newBuilder().setHost(IP).setPort(port));
     }
 
     /**
@@ -81,15 +496,44 @@ public class Blockchain implements IBlockchain {
      *            the enroll secret
      */
     public Blockchain(String IP, int port, String enrollID, String enrollSecret) {
+        this(newBuilder().setHost(IP).setPort(port).setCredentials(enrollID, enrollSecret));
+    }
 
-        server = IP + ":" + port;
-        urlTools = new URLTools();
-        useOpenSSL = false;
-        alertJSONNotFound = true;
-        securityEnabled = true;
-        this.enrollID = enrollID;
-        this.enrollSecret = enrollSecret;
-
+    /**
+     * Instantiates a new blockchain from a builder.
+     *
+     * @param builder
+     *            the builder
+     */
+    protected Blockchain(Builder builder) {
+        server = builder.host + ":" + builder.port;
+        TLSConfig tlsConfig = builder.tlsConfig;
+        if (tlsConfig == null && builder.useOpenSSL) {
+            tlsConfig = TLSConfig.newBuilder().build();
+        }
+        urlTools = new URLTools(builder.connectTimeout, builder.readTimeout,
+                tlsConfig != null ? tlsConfig.getSocketFactory() : null);
+        codec = builder.codec != null ? builder.codec : defaultCodec();
+        timestampIndex = builder.timestampIndex != null ? builder.timestampIndex : new BlockTimestampIndex();
+        transactionIndex = builder.transactionIndex;
+        chaincodeIndex = builder.chaincodeIndex;
+        useOpenSSL = builder.useOpenSSL;
+        alertJSONNotFound = builder.alertJSONNotFound;
+        securityEnabled = builder.enrollID != null;
+        enrollID = builder.enrollID;
+        enrollSecret = builder.enrollSecret;
+        circuitBreaker = builder.circuitBreaker != null ? builder.circuitBreaker : new CircuitBreaker(5, 10000);
+        retryBudget = builder.retryBudget != null ? builder.retryBudget : new RetryBudget();
+        maxRetries = builder.maxRetries;
+        retryBackoff = Math.max(1, builder.retryBackoff);
+        invokeLimiter = builder.invokeLimiter;
+        if (builder.scheduler != null) {
+            scheduler = builder.scheduler;
+        } else if (builder.maxConcurrentRequests > 0) {
+            scheduler = new RequestScheduler(builder.maxConcurrentRequests);
+        } else {
+            scheduler = null;
+        }
     }
 
     /*
@@ -102,83 +546,120 @@ public class Blockchain implements IBlockchain {
         String request = "/chain/blocks/" + blockNumber;
         URL url = createURLRequest(request);
 
-        JSONObject blockJSON = null;
+        JSONObject blockJSON = getIfFound(RequestClass.BULK, url);
 
-        if (useOpenSSL) {
-            blockJSON = urlTools.getHTTPSJSON(url);
-        } else {
-            blockJSON = urlTools.getJSON(url);
+        Block block = decode(blockJSON, Block.getDefaultInstance());
+        if (transactionIndex != null) {
+            transactionIndex.add(block);
+        }
+        // A block not found yet must not be marked as indexed.
+        if (chaincodeIndex != null && block != Block.getDefaultInstance()) {
+            chaincodeIndex.add(blockNumber, block);
         }
+        return block;
+    }
 
-        protos.Openchain.Block.Builder blockBuilder = Openchain.Block.newBuilder();
+    /*
+     * (non-Javadoc)
+     * 
+     * @see fabric4j.IBlockchain#scanBlock(int, objects.json.JSONPathScanner)
+     */
+    @Override
+    public void scanBlock(int blockNumber, JSONPathScanner scanner) {
+        String request = "/chain/blocks/" + blockNumber;
+        URL url = createURLRequest(request);
 
-        try {
-            Integer version = blockJSON.getInt("version");
-            blockBuilder.setVersion(version);
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
+        send(RequestClass.BULK, () -> {
+            urlTools.scanJSON(url, scanner);
+            return null;
+        });
+    }
 
-        }
+    /*
+     * (non-Javadoc)
+     * 
+     * @see fabric4j.IBlockchain#getBlocksBetween(java.time.Instant,
+     * java.time.Instant)
+     */
+    @Override
+    public List<Block> getBlocksBetween(Instant from, Instant to) {
+        return timestampIndex.getBlocksBetween(this, from, to);
+    }
 
-        try {
-            ByteString consensusMetadata = ByteString.copyFromUtf8(blockJSON.getString("consensusMetadata"));
-            blockBuilder.setConsensusMetadata(consensusMetadata);
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
-        }
+    /*
+     * (non-Javadoc)
+     * 
+     * @see fabric4j.IBlockchain#blockPublisher(int, int)
+     */
+    @Override
+    public Flow.Publisher<Block> blockPublisher(int from, int to) {
+        return new BlockPublisher(this, from, to);
+    }
 
-        // Non hash data not full.
-        try {
-            JSONObject nonHashDataJSON = blockJSON.getJSONObject("nonHashData");
-            try {
-                JSONObject timestampJSON = nonHashDataJSON.getJSONObject("localLedgerCommitTimestamp");
-                NonHashData nonHashData = NonHashData.newBuilder()
-                        .setLocalLedgerCommitTimestamp(timestampBuilder(timestampJSON)).build();
-                blockBuilder.setNonHashData(nonHashData);
-            } catch (JSONException e) {
-                if (alertJSONNotFound)
-                    e.printStackTrace();
-            }
+    /*
+     * (non-Javadoc)
+     * 
+     * @see fabric4j.IBlockchain#tailPublisher(int, long)
+     */
+    @Override
+    public Flow.Publisher<Block> tailPublisher(int from, long pollInterval) {
+        return BlockPublisher.tail(this, from, pollInterval);
+    }
 
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
-        }
+    /*
+     * (non-Javadoc)
+     * 
+     * @see fabric4j.IBlockchain#blockStream(int, int)
+     */
+    @Override
+    public Stream<Block> blockStream(int from, int to) {
+        return StreamSupport.stream(new BlockSpliterator(this, from, to, streamPermits), false);
+    }
 
-        try {
-            ByteString previousBlockHash = ByteString.copyFromUtf8(blockJSON.getString("previousBlockHash"));
-            blockBuilder.setPreviousBlockHash(previousBlockHash);
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
-        }
+    /**
+     * Gets the circuit breaker of the peer.
+     *
+     * @return the circuit breaker
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
 
-        try {
-            ByteString stateHash = ByteString.copyFromUtf8(blockJSON.getString("stateHash"));
-            blockBuilder.setStateHash(stateHash);
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
-        }
+    /**
+     * Gets the read timeout of the requests.
+     *
+     * @return the read timeout, in milliseconds, 0 for none
+     */
+    public int getReadTimeout() {
+        return urlTools.getReadTimeout();
+    }
 
-        blockBuilder.setTimestamp(timestampBuilder(blockJSON));
+    /**
+     * Gets the timestamp index used by getBlocksBetween, for example to save
+     * it.
+     *
+     * @return the timestamp index
+     */
+    public BlockTimestampIndex getTimestampIndex() {
+        return timestampIndex;
+    }
 
-        ArrayList<Transaction> transactions = new ArrayList<Transaction>();
-        try {
-            JSONArray transactionsJSONArray = blockJSON.getJSONArray("transactions");
-            for (int i = 0; i < transactionsJSONArray.length(); i++) {
-                transactions.add(txBuilder(transactionsJSONArray.getJSONObject(i)));
-            }
-            Iterable<Transaction> iteratorTransactions = transactions;
-            blockBuilder.addAllTransactions(iteratorTransactions);
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
-        }
+    /**
+     * Gets the transaction index.
+     *
+     * @return the transaction index, or null if there is none
+     */
+    public TransactionIndex getTransactionIndex() {
+        return transactionIndex;
+    }
 
-        return blockBuilder.build();
+    /**
+     * Gets the chaincode index.
+     *
+     * @return the chaincode index, or null if there is none
+     */
+    public ChaincodeIndex getChaincodeIndex() {
+        return chaincodeIndex;
     }
 
     /*
@@ -193,40 +674,9 @@ public class Blockchain implements IBlockchain {
 
         JSONObject chainJSON = null;
 
-        if (useOpenSSL) {
-            chainJSON = urlTools.getHTTPSJSON(url);
-        } else {
-            chainJSON = urlTools.getJSON(url);
-        }
-
-        Builder blockchainInfoBuilder = BlockchainInfo.newBuilder();
-
-        try {
-            Long height = chainJSON.getLong("height");
-            blockchainInfoBuilder.setHeight(height);
-
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
-        }
+        chainJSON = get(RequestClass.INTERACTIVE, url);
 
-        try {
-            ByteString currentBlockHash = ByteString.copyFromUtf8(chainJSON.getString("currentBlockHash"));
-            blockchainInfoBuilder.setCurrentBlockHash(currentBlockHash);
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
-        }
-
-        try {
-            ByteString previousBlockHash = ByteString.copyFromUtf8(chainJSON.getString("previousBlockHash"));
-            blockchainInfoBuilder.setPreviousBlockHash(previousBlockHash);
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
-        }
-
-        return blockchainInfoBuilder.build();
+        return decode(chainJSON, BlockchainInfo.getDefaultInstance());
     }
 
     /*
@@ -262,11 +712,7 @@ public class Blockchain implements IBlockchain {
                 bodyJSON.put("secureContext", enrollID);
             }
 
-            if (useOpenSSL) {
-                response = urlTools.sendHTTPSPost(url, bodyJSON.toString());
-            } else {
-                response = urlTools.sendPost(url, bodyJSON.toString());
-            }
+            response = limited(url, bodyJSON.toString());
 
         } catch (JSONException e) {
 
@@ -312,11 +758,7 @@ public class Blockchain implements IBlockchain {
 
             JSONObject bodyJSON = new JSONObject().put("chaincodeSpec", chaincodeSpecJSON);
 
-            if (useOpenSSL) {
-                response = urlTools.sendHTTPSPost(url, bodyJSON.toString());
-            } else {
-                response = urlTools.sendPost(url, bodyJSON.toString());
-            }
+            response = limited(url, bodyJSON.toString());
 
         } catch (JSONException e) {
 
@@ -361,11 +803,7 @@ public class Blockchain implements IBlockchain {
 
             JSONObject bodyJSON = new JSONObject().put("chaincodeSpec", chaincodeSpecJSON);
 
-            if (useOpenSSL) {
-                response = urlTools.sendHTTPSPost(url, bodyJSON.toString());
-            } else {
-                response = urlTools.sendPost(url, bodyJSON.toString());
-            }
+            response = retrying(() -> post(RequestClass.INTERACTIVE, url, bodyJSON.toString()));
 
         } catch (JSONException e) {
 
@@ -388,28 +826,9 @@ public class Blockchain implements IBlockchain {
 
         JSONObject peersJSON = null;
 
-        if (useOpenSSL) {
-            peersJSON = urlTools.getHTTPSJSON(url);
-        } else {
-            peersJSON = urlTools.getJSON(url);
-        }
-
-        protos.Openchain.PeersMessage.Builder peersMessageBuilder = PeersMessage.newBuilder();
+        peersJSON = get(RequestClass.INTERACTIVE, url);
 
-        ArrayList<PeerEndpoint> peers = new ArrayList<PeerEndpoint>();
-        try {
-            JSONArray peersJSONArray = peersJSON.getJSONArray("transactions");
-            for (int i = 0; i < peersJSONArray.length(); i++) {
-                peers.add(peerBuilder(peersJSONArray.getJSONObject(i)));
-            }
-            Iterable<PeerEndpoint> iteratorPeers = peers;
-            peersMessageBuilder.addAllPeers(iteratorPeers);
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
-        }
-        // TODO Not finished
-        return null;
+        return decode(peersJSON, PeersMessage.getDefaultInstance());
     }
 
     /*
@@ -419,35 +838,60 @@ public class Blockchain implements IBlockchain {
      */
     @Override
     public Transaction getTransaction(String uuid) {
+        return getTransaction(uuid, RequestClass.INTERACTIVE);
+    }
+
+    /**
+     * Gets a transaction, sent in a request class.
+     *
+     * @param uuid
+     *            the uuid
+     * @param requestClass
+     *            the request class
+     * @return the transaction, or the default instance if it is not found
+     */
+    Transaction getTransaction(String uuid, RequestClass requestClass) {
+        if (transactionIndex != null) {
+            Transaction indexed = transactionIndex.get(uuid);
+            if (indexed != null) {
+                return indexed;
+            }
+        }
         String request = "/transactions/" + uuid;
         URL url = createURLRequest(request);
-        JSONObject transactionJSON = null;
-
-        transactionJSON = urlTools.getJSON(url);
+        JSONObject transactionJSON = getIfFound(requestClass, url);
 
-        return txBuilder(transactionJSON);
+        Transaction transaction = decode(transactionJSON, Transaction.getDefaultInstance());
+        if (transactionIndex != null && transaction != Transaction.getDefaultInstance()) {
+            transactionIndex.add(transaction);
+        }
+        return transaction;
     }
 
     /*
      * (non-Javadoc)
-     * 
-     * @see obc4j.IOpenBlockchain#disableJSONNotFoundAlert()
+     *
+     * @see fabric4j.IBlockchain#getTransactions(java.util.Collection)
      */
     @Override
-    public void disableJSONNotFoundAlert() {
-        alertJSONNotFound = false;
-
+    public Map<String, Transaction> getTransactions(Collection<String> uuids) {
+        // A bulk lookup must not crowd out the interactive requests.
+        return TransactionLookup.lookup(uuid -> getTransaction(uuid, RequestClass.BULK), uuids, transactionIndex,
+                LOOKUP_FETCHES);
     }
 
-    /*
-     * (non-Javadoc)
-     * 
-     * @see obc4j.IOpenBlockchain#enableOpenSSL()
+    /**
+     * Creates the default codec, which interns the certificates and the
+     * chaincode IDs of the transactions since they repeat across many
+     * transactions.
+     *
+     * @return the codec
      */
-    @Override
-    public void enableOpenSSL() {
-        useOpenSSL = true;
-
+    private static JSONProtoCodec defaultCodec() {
+        ByteStringPool pool = new ByteStringPool();
+        return new JSONProtoCodec()
+                .withInterning(Transaction.getDescriptor().findFieldByName("cert"), pool)
+                .withInterning(Transaction.getDescriptor().findFieldByName("chaincodeID"), pool);
     }
 
     /**
@@ -480,220 +924,243 @@ public class Blockchain implements IBlockchain {
     }
 
     /**
-     * Tx builder.
+     * Gets the json of an url, retrying transient failures.
      *
-     * @param transactionJSON
-     *            the transaction json
-     * @return the transaction
+     * @param requestClass
+     *            the request class
+     * @param url
+     *            the url
+     * @return the json
      */
-    private Transaction txBuilder(JSONObject transactionJSON) {
-        protos.Openchain.Transaction.Builder transactionBuilder = Transaction.newBuilder();
+    private JSONObject get(RequestClass requestClass, URL url) {
+        return retrying(() -> send(requestClass, () -> urlTools.getJSON(url)));
+    }
 
+    /**
+     * Gets the json of an url, or null if the peer answers that the block or
+     * transaction asked for does not exist.
+     *
+     * @param requestClass
+     *            the request class
+     * @param url
+     *            the url
+     * @return the json, or null
+     */
+    private JSONObject getIfFound(RequestClass requestClass, URL url) {
         try {
-            Integer typeJSON = transactionJSON.getInt("type");
-            switch (typeJSON) {
-
-            case 0:
-                transactionBuilder.setType(Transaction.Type.UNDEFINED);
-                break;
-
-            case 1:
-                transactionBuilder.setType(Transaction.Type.CHAINCODE_NEW);
-                break;
-            case 2:
-                transactionBuilder.setType(Transaction.Type.CHAINCODE_UPDATE);
-                break;
-            case 3:
-                transactionBuilder.setType(Transaction.Type.CHAINCODE_EXECUTE);
-                break;
-            case 4:
-                transactionBuilder.setType(Transaction.Type.CHAINCODE_QUERY);
-                break;
-            case 5:
-                transactionBuilder.setType(Transaction.Type.CHAINCODE_TERMINATE);
-                break;
-            default:
-                System.out.println("No Transaction Type found.");
-                break;
-
+            return get(requestClass, url);
+        } catch (PeerIOException e) {
+            // The REST API answers 404, or 400 for a block past the height.
+            if (e.getStatusCode() == 404 || e.getStatusCode() == 400) {
+                return null;
             }
-        } catch (JSONException e) {
-
-            if (alertJSONNotFound)
-                e.printStackTrace();
+            throw e;
         }
+    }
 
-        try {
-            ByteString chaincodeID = ByteString.copyFromUtf8(transactionJSON.getString("chaincodeID"));
-            transactionBuilder.setChaincodeID(chaincodeID);
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
-        }
+    /**
+     * Posts a body to an url, without retries.
+     *
+     * @param requestClass
+     *            the request class
+     * @param url
+     *            the url
+     * @param body
+     *            the body
+     * @return the json response
+     */
+    private JSONObject post(RequestClass requestClass, URL url, String body) {
+        return send(requestClass, () -> urlTools.sendPost(url, body));
+    }
 
-        try {
-            ByteString payload = ByteString.copyFromUtf8(transactionJSON.getString("payload"));
-            transactionBuilder.setPayload(payload);
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
-        }
+    /**
+     * Sends a delete to an url, without retries.
+     *
+     * @param url
+     *            the url
+     * @return the json response
+     */
+    private JSONObject delete(URL url) {
+        return send(RequestClass.INTERACTIVE, () -> urlTools.sendDelete(url));
+    }
 
+    /**
+     * Sends a request once the scheduler gives its class a slot, through the
+     * circuit breaker.
+     *
+     * @param requestClass
+     *            the request class
+     * @param request
+     *            the request
+     * @return the response
+     * @throws CircuitOpenException
+     *             if the breaker is open
+     * @throws RequestRejectedException
+     *             if the queue of the class is full
+     */
+    private <T> T send(RequestClass requestClass, Supplier<T> request) {
+        acquireSlot(requestClass);
         try {
-            ByteString metadata = ByteString.copyFromUtf8(transactionJSON.getString("metadata"));
-            transactionBuilder.setMetadata(metadata);
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
+            return guarded(request);
+        } finally {
+            releaseSlot(requestClass);
         }
+    }
 
-        try {
-            String uuid = transactionJSON.getString("uuid");
-            transactionBuilder.setUuid(uuid);
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
+    /**
+     * Posts a deploy or an invoke once the limiter allows it, and reports its
+     * latency and outcome to the limiter. The latency is measured from the
+     * time the scheduler gives the request its slot, so that the wait behind
+     * the other request classes does not look like a slow peer.
+     *
+     * @param url
+     *            the url
+     * @param body
+     *            the body
+     * @return the json response
+     */
+    private JSONObject limited(URL url, String body) {
+        if (invokeLimiter == null) {
+            return post(RequestClass.INVOKE, url, body);
         }
-
         try {
-            JSONObject timestampJSON = transactionJSON.getJSONObject("timestamp");
-            transactionBuilder.setTimestamp(timestampBuilder(timestampJSON));
-
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
+            invokeLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BlockchainException("Interrupted while waiting to send.", e);
         }
-
+        long latency = 0;
+        // Only a success is a latency sample; a failure that is not an
+        // overload returns too fast to say anything of the load.
+        ConcurrencyLimiter.Outcome outcome = ConcurrencyLimiter.Outcome.IGNORE;
         try {
-            String confidentialityJSON = transactionJSON.getString("confidentialityLevel");
-            switch (confidentialityJSON) {
-            case "PUBLIC":
-                transactionBuilder.setConfidentialityLevel(ConfidentialityLevel.PUBLIC);
-                break;
-
-            case "CONFIDENTIAL":
-                transactionBuilder.setConfidentialityLevel(ConfidentialityLevel.CONFIDENTIAL);
-                break;
-            default:
-                System.out.println("Confidentiality Level not found.");
-                break;
+            acquireSlot(RequestClass.INVOKE);
+            long start = System.nanoTime();
+            try {
+                JSONObject response = guarded(() -> urlTools.sendPost(url, body));
+                outcome = ConcurrencyLimiter.Outcome.SUCCESS;
+                return response;
+            } catch (BlockchainException e) {
+                if (e.isRetryable() || e instanceof CircuitOpenException) {
+                    outcome = ConcurrencyLimiter.Outcome.OVERLOAD;
+                }
+                throw e;
+            } finally {
+                latency = System.nanoTime() - start;
+                releaseSlot(RequestClass.INVOKE);
             }
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
-        }
-
-        try {
-            ByteString nonce = ByteString.copyFromUtf8(transactionJSON.getString("nonce"));
-            transactionBuilder.setNonce(nonce);
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
-        }
-
-        try {
-            ByteString cert = ByteString.copyFromUtf8(transactionJSON.getString("cert"));
-            transactionBuilder.setCert(cert);
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
+        } finally {
+            invokeLimiter.release(latency, outcome);
         }
+    }
 
-        try {
-            ByteString signature = ByteString.copyFromUtf8(transactionJSON.getString("signature"));
-            transactionBuilder.setSignature(signature);
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
+    /**
+     * Waits for the scheduler to give a request of a class a slot.
+     *
+     * @param requestClass
+     *            the request class
+     * @throws RequestRejectedException
+     *             if the queue of the class is full
+     */
+    private void acquireSlot(RequestClass requestClass) {
+        if (scheduler != null) {
+            try {
+                scheduler.acquire(requestClass);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BlockchainException("Interrupted while waiting to send.", e);
+            }
         }
-
-        return transactionBuilder.build();
     }
 
     /**
-     * Timestamp builder.
+     * Gives back the slot of a request.
      *
-     * @param timestampJSON
-     *            the timestamp json
-     * @return the timestamp
+     * @param requestClass
+     *            the request class
      */
-    private Timestamp timestampBuilder(JSONObject timestampJSON) {
-        com.google.protobuf.Timestamp.Builder timestampBuilder = Timestamp.newBuilder();
-
-        try {
-            timestampBuilder.setSeconds(timestampJSON.getLong("seconds"));
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
+    private void releaseSlot(RequestClass requestClass) {
+        if (scheduler != null) {
+            scheduler.release(requestClass);
         }
-        try {
-            timestampBuilder.setNanos(timestampJSON.getInt("nanos"));
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
-        }
-
-        return timestampBuilder.build();
     }
 
     /**
-     * Peer builder.
+     * Sends a request through the circuit breaker. Only the transient
+     * failures of the peer, such as timeouts and 5xx answers, count against
+     * it; an answer with a client error status shows the peer is up.
      *
-     * @param peerJSON
-     *            the peer json
-     * @return the peer endpoint
+     * @param request
+     *            the request
+     * @return the response
+     * @throws CircuitOpenException
+     *             if the breaker is open
      */
-    private PeerEndpoint peerBuilder(JSONObject peerJSON) {
-        protos.Openchain.PeerEndpoint.Builder peerBuilder = PeerEndpoint.newBuilder();
-
-        try {
-            JSONObject peerIDJSON = peerJSON.getJSONObject("peerID");
-            PeerID peerID = PeerID.newBuilder().setName(peerIDJSON.getString("name")).build();
-            peerBuilder.setID(peerID);
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
+    private <T> T guarded(Supplier<T> request) {
+        if (!circuitBreaker.allowRequest()) {
+            throw new CircuitOpenException("Circuit open for " + server + ".");
         }
-
         try {
-            String address = peerJSON.getString("PeerID");
-            peerBuilder.setAddress(address);
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
+            T response = request.get();
+            circuitBreaker.onSuccess();
+            return response;
+        } catch (PeerIOException e) {
+            if (e.isRetryable()) {
+                circuitBreaker.onFailure();
+            } else {
+                circuitBreaker.onSuccess();
+            }
+            throw e;
+        } catch (RuntimeException | Error e) {
+            // A failure on this side, such as a listener throwing or an
+            // aborted request, says nothing of the peer. It must still end
+            // the trial, or a half open breaker would wait for it forever.
+            circuitBreaker.onIgnored();
+            throw e;
         }
+    }
 
-        try {
-            String type = peerJSON.getString("Type");
-            switch (type) {
-            case "UNDEFINED":
-                peerBuilder.setType(Type.UNDEFINED);
-                break;
-
-            case "VALIDATOR":
-                peerBuilder.setType(Type.VALIDATOR);
-                break;
-
-            case "NON_VALIDATOR":
-                peerBuilder.setType(Type.NON_VALIDATOR);
-                break;
-            default:
-                break;
+    /**
+     * Runs an idempotent read, retrying the transient failures after a
+     * jittered exponential backoff while the retry budget allows.
+     *
+     * @param read
+     *            the read
+     * @return the response
+     */
+    private <T> T retrying(Supplier<T> read) {
+        retryBudget.deposit();
+        for (int attempt = 0;; attempt++) {
+            try {
+                return read.get();
+            } catch (BlockchainException e) {
+                if (!e.isRetryable() || attempt >= maxRetries || !retryBudget.tryWithdraw()) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(retryBackoff << Math.min(attempt, 20)) + 1);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
             }
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
         }
+    }
 
-        try {
-            ByteString pkiID = ByteString.copyFromUtf8(peerJSON.getString("pkiID"));
-            peerBuilder.setPkiID(pkiID);
-        } catch (JSONException e) {
-            if (alertJSONNotFound)
-                e.printStackTrace();
+    /**
+     * Decodes a JSON response into a message.
+     *
+     * @param json
+     *            the json response, may be null
+     * @param prototype
+     *            the default instance of the message type
+     * @return the decoded message
+     */
+    private <T extends Message> T decode(JSONObject json, T prototype) {
+        if (json == null && alertJSONNotFound) {
+            System.err.println("No JSON found for " + prototype.getDescriptorForType().getName() + ".");
         }
-
-        return peerBuilder.build();
+        return codec.decode(json, prototype);
     }
 
     /*
@@ -715,11 +1182,7 @@ public class Blockchain implements IBlockchain {
                 bodyJSON.put("enrollID", enrollID);
                 bodyJSON.put("enrollSecret", enrollSecret);
 
-                if (useOpenSSL) {
-                    response = urlTools.sendHTTPSPost(url, bodyJSON.toString());
-                } else {
-                    response = urlTools.sendPost(url, bodyJSON.toString());
-                }
+                response = post(RequestClass.INTERACTIVE, url, bodyJSON.toString());
                 if (response.getString("OK").contains("Login successful")) {
                     success = true;
                 }
@@ -727,6 +1190,10 @@ public class Blockchain implements IBlockchain {
             } catch (JSONException e) {
 
                 e.printStackTrace();
+            } catch (PeerIOException e) {
+                if (e.isRetryable()) {
+                    throw e;
+                }
             }
 
         }
@@ -749,11 +1216,7 @@ public class Blockchain implements IBlockchain {
             JSONObject response = null;
             try {
 
-                if (useOpenSSL) {
-                    response = urlTools.sendHTTPSDelete(url);
-                } else {
-                    response = urlTools.sendDelete(url);
-                }
+                response = delete(url);
                 if (response.getString("OK").contains("Deleted login token and directory for user")) {
                     success = true;
                 }
@@ -761,6 +1224,10 @@ public class Blockchain implements IBlockchain {
             } catch (JSONException e) {
 
                 e.printStackTrace();
+            } catch (PeerIOException e) {
+                if (e.isRetryable()) {
+                    throw e;
+                }
             }
 
         }
@@ -780,24 +1247,18 @@ public class Blockchain implements IBlockchain {
             String request = "/registrar/" + enrollmentID;
             URL url = createURLRequest(request);
 
-            JSONObject registrarJSON = null;
-
-           
-                if (useOpenSSL) {
-                    registrarJSON = urlTools.getHTTPSJSON(url);
-                } else {
-                    registrarJSON = urlTools.getJSON(url);
+            try {
+                JSONObject registrarJSON = get(RequestClass.INTERACTIVE, url);
+                if (registrarJSON.getString("OK").contains("is already logged in.")) {
+                    success = true;
                 }
-
-                try {
-                    if (registrarJSON.getString("OK").contains("is already logged in.")) {
-                        success = true;
-                    }
-                } catch (JSONException e) {
-                    e.printStackTrace();
+            } catch (JSONException e) {
+                e.printStackTrace();
+            } catch (PeerIOException e) {
+                if (e.isRetryable()) {
+                    throw e;
                 }
-
-          
+            }
 
         }
         return success;
@@ -816,23 +1277,16 @@ public class Blockchain implements IBlockchain {
             String request = "/registrar/" + enrollmentID + "/ecert";
             URL url = createURLRequest(request);
 
-            JSONObject registrarJSON = null;
-
-          
-                if (useOpenSSL) {
-                    registrarJSON = urlTools.getHTTPSJSON(url);
-                } else {
-                    registrarJSON = urlTools.getJSON(url);
-                }
-
-                try {
-                    response = registrarJSON.getString("OK");
-
-                } catch (JSONException e) {
-                    e.printStackTrace();
+            try {
+                JSONObject registrarJSON = get(RequestClass.INTERACTIVE, url);
+                response = registrarJSON.getString("OK");
+            } catch (JSONException e) {
+                e.printStackTrace();
+            } catch (PeerIOException e) {
+                if (e.isRetryable()) {
+                    throw e;
                 }
-
-          
+            }
 
         }
         return response;
@@ -0,0 +1,318 @@
+package fabric4j;
+
+import java.io.Closeable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import objects.exception.BlockchainException;
+import protos.Openchain.Block;
+import protos.Openchain.Transaction;
+import tools.Flow;
+
+/**
+ * The Class CommitTracker.
+ *
+ * Tells when invoked transactions are committed. The tracker follows the
+ * chain from a block number onwards and scans the transactions of each new
+ * block once, completing the futures of the pending transactions it finds,
+ * so that waiting for any number of transactions costs one fetch per block
+ * instead of one getTransaction poll per transaction.
+ * <p/>
+ * Only the blocks from the start block onwards are scanned, so the tracker
+ * must be started before the transactions it tracks are invoked. The
+ * transactions of the last blocks scanned are remembered, up to 65536, so
+ * that a transaction committed between its invoke and the call to track is
+ * still found. A failed fetch is retried after the poll interval, and so is
+ * a block that comes back empty, as it does from a peer that does not hold
+ * it yet. When the blockchain is built with a TransactionIndex, the result of
+ * a transaction, telling whether it succeeded, is in the index by the time
+ * its future completes.
+ * <p/>
+ * A CommitTracker is thread safe.
+ *
+ * @author Quentin Le Sceller
+ */
+public class CommitTracker implements Closeable {
+
+    /** The number of recently scanned transactions remembered. */
+    private static final int RECENT_TRANSACTIONS = 1 << 16;
+
+    /** The blockchain. */
+    private final IBlockchain blockchain;
+
+    /** The wait between two polls of the height, in milliseconds. */
+    private final long pollInterval;
+
+    /** The futures of the pending transactions, by uuid. */
+    private final ConcurrentMap<String, CompletableFuture<Transaction>> pending = new ConcurrentHashMap<String, CompletableFuture<Transaction>>();
+
+    /**
+     * The recently scanned transactions, by uuid, oldest first. Guarded by
+     * itself.
+     */
+    private final Map<String, Transaction> recent = new LinkedHashMap<String, Transaction>() {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Transaction> eldest) {
+            return size() > RECENT_TRANSACTIONS;
+        }
+    };
+
+    /** The timer of the timeouts and of the resubscriptions. */
+    private final ScheduledThreadPoolExecutor timer;
+
+    /** The next block number to scan. */
+    private volatile int nextBlock;
+
+    /** The subscription to the blocks, null between two subscriptions. */
+    private volatile Flow.Subscription subscription;
+
+    /** Whether the tracker is closed. */
+    private volatile boolean closed;
+
+    /**
+     * Instantiates a new commit tracker starting at the current height of the
+     * chain.
+     *
+     * @param blockchain
+     *            the blockchain
+     * @param pollInterval
+     *            the wait between two polls of the height, in milliseconds,
+     *            positive
+     */
+    public CommitTracker(IBlockchain blockchain, long pollInterval) {
+        this(blockchain, (int) blockchain.getBlockchainInfo().getHeight(), pollInterval);
+    }
+
+    /**
+     * Instantiates a new commit tracker.
+     *
+     * @param blockchain
+     *            the blockchain
+     * @param fromBlock
+     *            the first block number to scan
+     * @param pollInterval
+     *            the wait between two polls of the height, in milliseconds,
+     *            positive
+     */
+    public CommitTracker(IBlockchain blockchain, int fromBlock, long pollInterval) {
+        if (fromBlock < 0) {
+            throw new IllegalArgumentException("Negative block number.");
+        }
+        if (pollInterval <= 0) {
+            throw new IllegalArgumentException("The poll interval must be positive.");
+        }
+        this.blockchain = blockchain;
+        this.pollInterval = pollInterval;
+        this.nextBlock = fromBlock;
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "fabric4j-commit-tracker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        subscribe();
+    }
+
+    /**
+     * Tracks a transaction. Tracking the same uuid twice gives the same
+     * future, with the timeout of the first call. If the transaction is in a
+     * recently scanned block, the future is already completed.
+     *
+     * @param uuid
+     *            the uuid returned by invoke
+     * @param timeout
+     *            the time to wait for the commit
+     * @param unit
+     *            the unit of the timeout
+     * @return the future of the committed transaction, which fails with a
+     *         TimeoutException if the transaction is not committed in time
+     */
+    public CompletableFuture<Transaction> track(final String uuid, long timeout, TimeUnit unit) {
+        if (closed) {
+            throw new IllegalStateException("The commit tracker is closed.");
+        }
+        final CompletableFuture<Transaction> future = new CompletableFuture<Transaction>();
+        CompletableFuture<Transaction> existing = pending.putIfAbsent(uuid, future);
+        if (existing != null) {
+            return existing;
+        }
+        final ScheduledFuture<?> expiry = timer.schedule(() -> {
+            future.completeExceptionally(new TimeoutException("Transaction " + uuid + " not committed in time."));
+        }, timeout, unit);
+        // Whichever way the future completes, including a cancel by the
+        // caller, it stops being tracked.
+        future.whenComplete((transaction, failure) -> {
+            expiry.cancel(false);
+            pending.remove(uuid, future);
+        });
+        // The scanner records a block's transactions before looking up the
+        // pending ones, so a block scanned since the invoke is either seen
+        // here or sees this future.
+        Transaction committed;
+        synchronized (recent) {
+            committed = recent.get(uuid);
+        }
+        if (committed != null) {
+            future.complete(committed);
+        }
+        return future;
+    }
+
+    /**
+     * Gets the number of transactions tracked and not committed yet.
+     *
+     * @return the number of pending transactions
+     */
+    public int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * Gets the next block number to scan.
+     *
+     * @return the next block number
+     */
+    public int getNextBlock() {
+        return nextBlock;
+    }
+
+    /**
+     * Stops following the chain. The pending futures fail with a
+     * BlockchainException.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Flow.Subscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+        timer.shutdownNow();
+        BlockchainException failure = new BlockchainException("The commit tracker is closed.");
+        for (CompletableFuture<Transaction> future : pending.values()) {
+            future.completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * Subscribes to the blocks from the next block number onwards.
+     */
+    private void subscribe() {
+        if (!closed) {
+            blockchain.tailPublisher(nextBlock, pollInterval).subscribe(new BlockScanner());
+        }
+    }
+
+    /**
+     * The Class BlockScanner.
+     *
+     * Scans the blocks of one subscription.
+     */
+    private final class BlockScanner implements Flow.Subscriber<Block> {
+
+        /** The subscription of the scanner. */
+        private Flow.Subscription own;
+
+        /** Whether the subscription is given up, its next blocks ignored. */
+        private boolean abandoned;
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see tools.Flow.Subscriber#onSubscribe(tools.Flow.Subscription)
+         */
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            own = subscription;
+            CommitTracker.this.subscription = subscription;
+            if (closed) {
+                subscription.cancel();
+            } else {
+                subscription.request(Long.MAX_VALUE);
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see tools.Flow.Subscriber#onNext(java.lang.Object)
+         */
+        @Override
+        public void onNext(Block block) {
+            if (abandoned) {
+                return;
+            }
+            if (block.getTransactionsCount() == 0 && block.getStateHash().isEmpty()) {
+                // The publisher only sends blocks below the height, so an
+                // empty default block means the block was not found, for
+                // example on a lagging peer. Reads it again rather than
+                // skipping its transactions.
+                abandoned = true;
+                own.cancel();
+                retry();
+                return;
+            }
+            synchronized (recent) {
+                for (Transaction transaction : block.getTransactionsList()) {
+                    recent.put(transaction.getUuid(), transaction);
+                }
+            }
+            if (!pending.isEmpty()) {
+                for (Transaction transaction : block.getTransactionsList()) {
+                    CompletableFuture<Transaction> future = pending.get(transaction.getUuid());
+                    if (future != null) {
+                        future.complete(transaction);
+                    }
+                }
+            }
+            nextBlock++;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see tools.Flow.Subscriber#onError(java.lang.Throwable)
+         */
+        @Override
+        public void onError(Throwable throwable) {
+            if (!abandoned) {
+                abandoned = true;
+                retry();
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see tools.Flow.Subscriber#onComplete()
+         */
+        @Override
+        public void onComplete() {
+            // A tail publisher does not complete.
+        }
+
+        /**
+         * Subscribes again from the next block number after the poll
+         * interval.
+         */
+        private void retry() {
+            subscription = null;
+            try {
+                timer.schedule(CommitTracker.this::subscribe, pollInterval, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // The tracker is closed.
+            }
+        }
+    }
+}
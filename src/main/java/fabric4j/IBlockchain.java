@@ -1,15 +1,25 @@
 package fabric4j;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 import objects.json.JSONObject;
+import objects.json.JSONPathScanner;
 import protos.Openchain.Block;
 import protos.Openchain.BlockchainInfo;
 import protos.Openchain.PeersMessage;
 import protos.Openchain.Transaction;
+import tools.Flow;
 
 /**
  * The Interface IBLockchain.
  * 
+ * The methods throw an unchecked BlockchainException when a request to a peer
+ * fails.
+ * 
  * @author Quentin Le Sceller
  */
 public interface IBlockchain {
@@ -23,6 +33,69 @@ public interface IBlockchain {
      */
     Block getBlock(int blockNumber);
 
+    /**
+     * Scans a block, reporting only the values at the paths registered on the
+     * scanner, for example {@code transactions[*].uuid}.
+     *
+     * @param blockNumber
+     *            the block number
+     * @param scanner
+     *            the scanner
+     */
+    void scanBlock(int blockNumber, JSONPathScanner scanner);
+
+    /**
+     * Gets the blocks whose timestamp is in [from, to), found by binary search
+     * over the block timestamps.
+     *
+     * @param from
+     *            the first instant
+     * @param to
+     *            the end instant
+     * @return the blocks, in chain order
+     */
+    List<Block> getBlocksBetween(Instant from, Instant to);
+
+    /**
+     * Gets a publisher of the blocks in [from, to), which fetches each block
+     * only once a subscriber has asked for it.
+     *
+     * @param from
+     *            the first block number
+     * @param to
+     *            the end block number, exclusive
+     * @return the publisher
+     */
+    Flow.Publisher<Block> blockPublisher(int from, int to);
+
+    /**
+     * Gets a publisher of the blocks from a block number onwards, which
+     * follows the chain as blocks are added and fetches each block only once
+     * a subscriber has asked for it.
+     *
+     * @param from
+     *            the first block number
+     * @param pollInterval
+     *            the wait between two polls of the height, in milliseconds,
+     *            positive
+     * @return the publisher
+     */
+    Flow.Publisher<Block> tailPublisher(int from, long pollInterval);
+
+    /**
+     * Gets a stream of the blocks in [from, to), fetched as the stream is
+     * consumed. A parallel stream splits the range between threads, with a
+     * bound on the blocks fetched at once that all the streams of the client
+     * share.
+     *
+     * @param from
+     *            the first block number
+     * @param to
+     *            the end block number, exclusive
+     * @return the stream
+     */
+    Stream<Block> blockStream(int from, int to);
+
     /**
      * Gets the blockchain info.
      *
@@ -100,10 +173,15 @@ public interface IBlockchain {
     Transaction getTransaction(String uuid);
 
     /**
-     * Disable json not found alert.
+     * Gets many transactions at once. Duplicate uuids are looked up once,
+     * and the transactions are fetched in parallel, a bounded number at a
+     * time.
+     *
+     * @param uuids
+     *            the uuids
+     * @return the transactions found, by uuid; the uuids of unknown
+     *         transactions are absent
      */
-    void disableJSONNotFoundAlert();
-
-    void enableOpenSSL();
+    Map<String, Transaction> getTransactions(Collection<String> uuids);
 
 }
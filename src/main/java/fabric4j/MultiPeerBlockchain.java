@@ -0,0 +1,958 @@
+package fabric4j;
+
+import java.io.Closeable;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import ledger.BlockTimestampIndex;
+import objects.exception.BlockchainException;
+import objects.exception.CircuitOpenException;
+import objects.json.JSONObject;
+import objects.json.JSONPathScanner;
+import protos.Openchain.Block;
+import protos.Openchain.BlockchainInfo;
+import protos.Openchain.PeersMessage;
+import protos.Openchain.Transaction;
+import tools.AbortSignal;
+import tools.CircuitBreaker;
+import tools.Flow;
+import tools.RequestClass;
+
+/**
+ * The Class MultiPeerBlockchain.
+ *
+ * A MultiPeerBlockchain spreads the read calls (getBlock, scanBlock,
+ * getBlockchainInfo, getTransaction, query and getPeers) over several peers,
+ * and sends the other calls (deploy, invoke and the registrar calls) to the
+ * first peer, the primary.
+ * <p/>
+ * Each read goes to the faster of two peers picked at random, by their
+ * exponentially weighted moving average latency, so that the load is spread
+ * while slow peers get less of it. Only the latencies of the reads that found
+ * something are averaged, so that a peer quickly answering "not found" does
+ * not look fast. A block read goes only to the peers known to hold the
+ * block, and an empty answer for a block below the highest height is read
+ * again from another peer. A background probe calls
+ * getBlockchainInfo on every peer; a peer that fails its probe, or whose
+ * height lags the highest one by more than the allowed lag, gets no reads
+ * until a later probe finds it back in shape. A peer whose circuit breaker is
+ * open gets no reads either, and a read that fails because its peer is failing
+ * is sent once more to another peer.
+ * <p/>
+ * When hedging is enabled, a getBlock or getTransaction that the chosen peer
+ * has not answered within its recent latency percentile (the 95th by
+ * default) is sent to a second peer as well. The first answer wins and the
+ * connection of the other request is closed. Hedging needs a read timeout on
+ * every peer, so that a request to a stalled peer cannot hold its thread
+ * forever.
+ * <p/>
+ * A MultiPeerBlockchain is thread safe. It must be closed to stop the probes.
+ *
+ * @author Quentin Le Sceller
+ */
+public class MultiPeerBlockchain implements IBlockchain, Closeable {
+
+    /** The weight of a new latency sample in the moving average. */
+    private static final double ALPHA = 0.2;
+
+    /** The max number of blocks the block streams fetch at once per peer. */
+    private static final int STREAM_FETCHES_PER_PEER = 8;
+
+    /** The max number of transactions fetched at once by getTransactions, per peer. */
+    private static final int LOOKUP_FETCHES_PER_PEER = 8;
+
+    /** The number of getBlock and getTransaction latencies kept per peer for the percentile. */
+    private static final int WINDOW = 128;
+
+    /** The number of read latencies needed before hedging. */
+    private static final int MIN_SAMPLES = 16;
+
+    /**
+     * The Class Peer.
+     *
+     * Holds the client of a peer and what is known of its state.
+     */
+    private static final class Peer {
+
+        /** The client. */
+        final Blockchain blockchain;
+
+        /** The moving average latency, in nanoseconds, 0 before any sample. */
+        private double latency;
+
+        /** The latest getBlock and getTransaction latencies, in nanoseconds. */
+        private final long[] samples = new long[WINDOW];
+
+        /** The number of read latencies recorded. */
+        private long sampleCount;
+
+        /** The height found by the last probe. */
+        volatile long height;
+
+        /** Whether the peer answered its last probe. */
+        volatile boolean healthy = true;
+
+        Peer(Blockchain blockchain) {
+            this.blockchain = blockchain;
+        }
+
+        synchronized void record(long nanos) {
+            latency = latency == 0 ? nanos : latency + ALPHA * (nanos - latency);
+        }
+
+        synchronized double getLatency() {
+            return latency;
+        }
+
+        synchronized void recordRead(long nanos) {
+            record(nanos);
+            samples[(int) (sampleCount++ % WINDOW)] = nanos;
+        }
+
+        /**
+         * Gets a percentile of the latest read latencies.
+         *
+         * @param percentile
+         *            the percentile, between 0 and 1
+         * @return the latency, in nanoseconds, or -1 if there are too few
+         *         samples
+         */
+        long getReadPercentile(double percentile) {
+            long[] sorted;
+            synchronized (this) {
+                if (sampleCount < MIN_SAMPLES) {
+                    return -1;
+                }
+                sorted = Arrays.copyOf(samples, (int) Math.min(sampleCount, WINDOW));
+            }
+            Arrays.sort(sorted);
+            return sorted[(int) Math.min(sorted.length - 1, Math.round(percentile * (sorted.length - 1)))];
+        }
+    }
+
+    /**
+     * The Class Attempt.
+     *
+     * One of the reads of a hedged read.
+     */
+    private static final class Attempt<T> {
+
+        /** The peer. */
+        final Peer peer;
+
+        /** The start of the read, in nanoseconds. */
+        final long start = System.nanoTime();
+
+        /** The signal aborting the read. */
+        final AbortSignal signal = new AbortSignal();
+
+        /** The future of the read. */
+        Future<T> future;
+
+        Attempt(Peer peer) {
+            this.peer = peer;
+        }
+    }
+
+    /** The peers, the primary first. */
+    private final Peer[] peers;
+
+    /** The height a peer may lag behind the highest peer. */
+    private final long maxHeightLag;
+
+    /** The timestamp index. */
+    private final BlockTimestampIndex timestampIndex;
+
+    /** The probe scheduler. */
+    private final ScheduledExecutorService scheduler;
+
+    /** The hedged request executor, null when hedging is disabled. */
+    private final ExecutorService hedgeExecutor;
+
+    /** The latency percentile after which a read is hedged. */
+    private final double hedgePercentile;
+
+    /** The permits of the blocks fetched by the block streams, shared by the streams. */
+    private final Semaphore streamPermits;
+
+    /** The highest height found by the probes. */
+    private volatile long maxHeight;
+
+    /**
+     * The Class Builder.
+     *
+     * Collects the configuration of a MultiPeerBlockchain.
+     */
+    public static final class Builder {
+
+        /** The peers. */
+        private final List<Blockchain> peers = new ArrayList<Blockchain>();
+
+        /** The probe interval, in milliseconds. */
+        private long probeInterval = 5000;
+
+        /** The max height lag. */
+        private long maxHeightLag = 2;
+
+        /** The timestamp index. */
+        private BlockTimestampIndex timestampIndex;
+
+        /** The hedging. */
+        private boolean hedging;
+
+        /** The hedge percentile. */
+        private double hedgePercentile = 0.95;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a peer. The first peer added is the primary, which receives
+         * the calls that are not reads.
+         *
+         * @param blockchain
+         *            the client of the peer
+         * @return this builder
+         */
+        public Builder addPeer(Blockchain blockchain) {
+            peers.add(blockchain);
+            return this;
+        }
+
+        /**
+         * Sets the interval between two probes of a peer.
+         *
+         * @param probeInterval
+         *            the probe interval, in milliseconds
+         * @return this builder
+         */
+        public Builder setProbeInterval(long probeInterval) {
+            this.probeInterval = probeInterval;
+            return this;
+        }
+
+        /**
+         * Sets the number of blocks a peer may lag behind the highest peer
+         * and still get reads.
+         *
+         * @param maxHeightLag
+         *            the max height lag
+         * @return this builder
+         */
+        public Builder setMaxHeightLag(long maxHeightLag) {
+            this.maxHeightLag = maxHeightLag;
+            return this;
+        }
+
+        /**
+         * Sets the timestamp index used by getBlocksBetween.
+         *
+         * @param timestampIndex
+         *            the timestamp index
+         * @return this builder
+         */
+        public Builder setTimestampIndex(BlockTimestampIndex timestampIndex) {
+            this.timestampIndex = timestampIndex;
+            return this;
+        }
+
+        /**
+         * Sets whether getBlock and getTransaction are hedged: sent to a
+         * second peer when the first one is slower than usual. Every peer
+         * must then have a read timeout.
+         *
+         * @param hedging
+         *            true to hedge
+         * @return this builder
+         */
+        public Builder setHedging(boolean hedging) {
+            this.hedging = hedging;
+            return this;
+        }
+
+        /**
+         * Sets the percentile of the recent read latencies of a peer after
+         * which a read is hedged. Lower values cut more of the tail latency
+         * but send more duplicate requests.
+         *
+         * @param hedgePercentile
+         *            the percentile, between 0 and 1, 0.95 by default
+         * @return this builder
+         */
+        public Builder setHedgePercentile(double hedgePercentile) {
+            if (hedgePercentile <= 0 || hedgePercentile > 1) {
+                throw new IllegalArgumentException("The percentile must be in ]0, 1].");
+            }
+            this.hedgePercentile = hedgePercentile;
+            return this;
+        }
+
+        /**
+         * Builds the client and starts the probes.
+         *
+         * @return the client
+         * @throws IllegalStateException
+         *             if no peer is added, or if hedging is enabled and a
+         *             peer has no read timeout
+         */
+        public MultiPeerBlockchain build() {
+            if (peers.isEmpty()) {
+                throw new IllegalStateException("No peer added.");
+            }
+            if (hedging) {
+                for (Blockchain peer : peers) {
+                    if (peer.getReadTimeout() <= 0) {
+                        throw new IllegalStateException("Hedging needs a read timeout on every peer.");
+                    }
+                }
+            }
+            return new MultiPeerBlockchain(this);
+        }
+    }
+
+    /**
+     * Creates a new builder.
+     *
+     * @return the builder
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Instantiates a new multi peer blockchain from a builder.
+     *
+     * @param builder
+     *            the builder
+     */
+    protected MultiPeerBlockchain(Builder builder) {
+        peers = new Peer[builder.peers.size()];
+        for (int i = 0; i < peers.length; i++) {
+            peers[i] = new Peer(builder.peers.get(i));
+        }
+        maxHeightLag = builder.maxHeightLag;
+        streamPermits = new Semaphore(STREAM_FETCHES_PER_PEER * peers.length);
+        hedgePercentile = builder.hedgePercentile;
+        hedgeExecutor = builder.hedging && peers.length > 1 ? Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "fabric4j-hedge");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }) : null;
+        timestampIndex = builder.timestampIndex != null ? builder.timestampIndex : new BlockTimestampIndex();
+        scheduler = Executors.newScheduledThreadPool(peers.length, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "fabric4j-probe");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (final Peer peer : peers) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    probe(peer);
+                }
+            }, 0, builder.probeInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see fabric4j.IBlockchain#getBlock(int)
+     */
+    @Override
+    public Block getBlock(final int blockNumber) {
+        return read(blockchain -> blockchain.getBlock(blockNumber), Block.getDefaultInstance(), blockNumber, true);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see fabric4j.IBlockchain#scanBlock(int, objects.json.JSONPathScanner)
+     */
+    @Override
+    public void scanBlock(int blockNumber, JSONPathScanner scanner) {
+        // No failover: the listeners may already have seen part of the block.
+        timedRead(choose(blockNumber), blockchain -> {
+            blockchain.scanBlock(blockNumber, scanner);
+            return null;
+        }, null, -1, false);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see fabric4j.IBlockchain#getBlocksBetween(java.time.Instant,
+     * java.time.Instant)
+     */
+    @Override
+    public List<Block> getBlocksBetween(Instant from, Instant to) {
+        return timestampIndex.getBlocksBetween(this, from, to);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see fabric4j.IBlockchain#blockPublisher(int, int)
+     */
+    @Override
+    public Flow.Publisher<Block> blockPublisher(int from, int to) {
+        return new BlockPublisher(this, from, to);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see fabric4j.IBlockchain#tailPublisher(int, long)
+     */
+    @Override
+    public Flow.Publisher<Block> tailPublisher(int from, long pollInterval) {
+        return BlockPublisher.tail(this, from, pollInterval);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see fabric4j.IBlockchain#blockStream(int, int)
+     */
+    @Override
+    public Stream<Block> blockStream(int from, int to) {
+        return StreamSupport.stream(new BlockSpliterator(this, from, to, streamPermits), false);
+    }
+
+    /**
+     * Gets the timestamp index used by getBlocksBetween.
+     *
+     * @return the timestamp index
+     */
+    public BlockTimestampIndex getTimestampIndex() {
+        return timestampIndex;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see fabric4j.IBlockchain#getBlockchainInfo()
+     */
+    @Override
+    public BlockchainInfo getBlockchainInfo() {
+        return read(blockchain -> blockchain.getBlockchainInfo(), BlockchainInfo.getDefaultInstance(), -1, false);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see fabric4j.IBlockchain#deploy(java.lang.String, java.lang.String,
+     * java.lang.String, java.lang.String[])
+     */
+    @Override
+    public JSONObject deploy(String type, String path, String function, String[] args) {
+        return peers[0].blockchain.deploy(type, path, function, args);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see fabric4j.IBlockchain#invoke(java.lang.String, java.lang.String,
+     * java.lang.String, java.lang.String[])
+     */
+    @Override
+    public JSONObject invoke(String type, String chaincodeIDName, String function, String[] args) {
+        return peers[0].blockchain.invoke(type, chaincodeIDName, function, args);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see fabric4j.IBlockchain#query(java.lang.String, java.lang.String,
+     * java.lang.String, java.lang.String[])
+     */
+    @Override
+    public JSONObject query(String type, String name, String function, String[] args) {
+        return read(blockchain -> blockchain.query(type, name, function, args), null, -1, false);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see fabric4j.IBlockchain#getPeers()
+     */
+    @Override
+    public PeersMessage getPeers() {
+        return read(blockchain -> blockchain.getPeers(), PeersMessage.getDefaultInstance(), -1, false);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see fabric4j.IBlockchain#registrarUser()
+     */
+    @Override
+    public Boolean registrarUser() {
+        // Log in on every peer, since a query may go to any of them.
+        Boolean success = null;
+        for (Peer peer : peers) {
+            Boolean peerSuccess = peer.blockchain.registrarUser();
+            if (peerSuccess != null) {
+                success = (success == null || success) && peerSuccess;
+            }
+        }
+        return success;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see fabric4j.IBlockchain#deleteUser(java.lang.String)
+     */
+    @Override
+    public Boolean deleteUser(String enrollmentID) {
+        Boolean success = null;
+        for (Peer peer : peers) {
+            Boolean peerSuccess = peer.blockchain.deleteUser(enrollmentID);
+            if (peerSuccess != null) {
+                success = (success == null || success) && peerSuccess;
+            }
+        }
+        return success;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see fabric4j.IBlockchain#getRegistrar(java.lang.String)
+     */
+    @Override
+    public Boolean getRegistrar(String enrollmentID) {
+        return peers[0].blockchain.getRegistrar(enrollmentID);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see fabric4j.IBlockchain#getEnrollmentCertificate(java.lang.String)
+     */
+    @Override
+    public String getEnrollmentCertificate(String enrollmentID) {
+        return peers[0].blockchain.getEnrollmentCertificate(enrollmentID);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see fabric4j.IBlockchain#getTransaction(java.lang.String)
+     */
+    @Override
+    public Transaction getTransaction(final String uuid) {
+        return read(blockchain -> blockchain.getTransaction(uuid), Transaction.getDefaultInstance(), -1, true);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see fabric4j.IBlockchain#getTransactions(java.util.Collection)
+     */
+    @Override
+    public Map<String, Transaction> getTransactions(Collection<String> uuids) {
+        // Each lookup is routed on its own, without hedging, in the bulk
+        // class of the peer, and answered by the transaction index of the
+        // peer's Blockchain if it has one.
+        return TransactionLookup.lookup(
+                uuid -> read(blockchain -> blockchain.getTransaction(uuid, RequestClass.BULK),
+                        Transaction.getDefaultInstance(), -1, false),
+                uuids, null, LOOKUP_FETCHES_PER_PEER * peers.length);
+    }
+
+    /**
+     * Stops the probes and the hedged requests.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads from a peer, hedging the read on a second peer if asked and
+     * enabled. If the read fails because the peer is failing, or finds no
+     * block although the block is below the highest height, it is sent once
+     * more to another available peer.
+     *
+     * @param call
+     *            the read
+     * @param empty
+     *            the answer when nothing is found
+     * @param blockNumber
+     *            the number of the block read, below which an empty answer
+     *            means the peer is failing, or -1
+     * @param hedge
+     *            whether the read may be hedged
+     * @return the answer
+     */
+    private <T> T read(Function<Blockchain, T> call, T empty, long blockNumber, boolean hedge) {
+        Peer first = choose(blockNumber);
+        long threshold = hedge && hedgeExecutor != null ? first.getReadPercentile(hedgePercentile) : -1;
+        T answer;
+        try {
+            if (threshold < 0) {
+                answer = timedRead(first, call, empty, blockNumber, hedge);
+            } else {
+                answer = hedgedRead(first, threshold, call, empty, blockNumber);
+            }
+        } catch (BlockchainException e) {
+            Peer other = e.isRetryable() || e instanceof CircuitOpenException ? chooseOther(first, blockNumber) : null;
+            if (other == null) {
+                throw e;
+            }
+            return timedRead(other, call, empty, blockNumber, hedge);
+        }
+        if (answer == empty && blockNumber >= 0 && blockNumber < maxHeight) {
+            // The block exists, so the peer is missing it.
+            Peer other = chooseOther(first, blockNumber);
+            if (other != null) {
+                return timedRead(other, call, empty, blockNumber, hedge);
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Reads from a peer, and from a second peer as well if the first one has
+     * not answered within the threshold or has failed. The first answer that
+     * is not empty wins and the other read is aborted: its connection is
+     * closed, since a blocked read does not notice an interrupt. The time the
+     * losing peer took so far goes to its moving average.
+     *
+     * @param first
+     *            the peer of the first read
+     * @param threshold
+     *            the time after which the read is hedged, in nanoseconds
+     * @param call
+     *            the read
+     * @param empty
+     *            the answer when nothing is found
+     * @param blockNumber
+     *            the number of the block read, or -1
+     * @return the answer
+     */
+    private <T> T hedgedRead(Peer first, long threshold, Function<Blockchain, T> call, T empty, long blockNumber) {
+        CompletionService<T> completion = new ExecutorCompletionService<T>(hedgeExecutor);
+        List<Attempt<T>> attempts = new ArrayList<Attempt<T>>(2);
+        submit(completion, attempts, first, call, empty, blockNumber);
+        boolean hedged = false;
+        boolean answered = false;
+        BlockchainException failure = null;
+        try {
+            Future<T> done = completion.poll(threshold, TimeUnit.NANOSECONDS);
+            if (done == null) {
+                hedged = true;
+                hedge(first, completion, attempts, call, empty, blockNumber);
+            }
+            for (int outstanding = attempts.size(); outstanding > 0; outstanding--) {
+                if (done == null) {
+                    done = completion.take();
+                }
+                try {
+                    T answer = done.get();
+                    if (answer != empty) {
+                        return answer;
+                    }
+                    answered = true;
+                } catch (ExecutionException e) {
+                    failure = e.getCause() instanceof BlockchainException ? (BlockchainException) e.getCause()
+                            : new BlockchainException("Read failed.", e.getCause());
+                    if (!hedged) {
+                        hedged = true;
+                        outstanding += hedge(first, completion, attempts, call, empty, blockNumber);
+                    }
+                }
+                done = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BlockchainException("Interrupted while reading.", e);
+        } finally {
+            for (Attempt<T> attempt : attempts) {
+                if (!attempt.future.isDone()) {
+                    // The read lost: its peer took at least that long.
+                    attempt.peer.record(System.nanoTime() - attempt.start);
+                }
+                attempt.future.cancel(true);
+                attempt.signal.abort();
+            }
+        }
+        if (!answered) {
+            throw failure;
+        }
+        return empty;
+    }
+
+    /**
+     * Sends the hedged read to the fastest available peer other than the
+     * first one.
+     *
+     * @param first
+     *            the peer of the first read
+     * @param completion
+     *            the completion service of the reads
+     * @param attempts
+     *            the reads sent, to which the hedged read is added
+     * @param call
+     *            the read
+     * @param empty
+     *            the answer when nothing is found
+     * @param blockNumber
+     *            the number of the block read, or -1
+     * @return the number of reads sent, 0 if there is no other peer
+     */
+    private <T> int hedge(Peer first, CompletionService<T> completion, List<Attempt<T>> attempts,
+            Function<Blockchain, T> call, T empty, long blockNumber) {
+        Peer second = chooseOther(first, blockNumber);
+        if (second == null) {
+            return 0;
+        }
+        submit(completion, attempts, second, call, empty, blockNumber);
+        return 1;
+    }
+
+    /**
+     * Submits a read of a hedged read, which its abort signal can stop.
+     *
+     * @param completion
+     *            the completion service of the reads
+     * @param attempts
+     *            the reads sent, to which the read is added
+     * @param peer
+     *            the peer
+     * @param call
+     *            the read
+     * @param empty
+     *            the answer when nothing is found
+     * @param blockNumber
+     *            the number of the block read, or -1
+     */
+    private <T> void submit(CompletionService<T> completion, List<Attempt<T>> attempts, Peer peer,
+            Function<Blockchain, T> call, T empty, long blockNumber) {
+        Attempt<T> attempt = new Attempt<T>(peer);
+        attempt.future = completion
+                .submit(() -> attempt.signal.run(() -> timedRead(peer, call, empty, blockNumber, true)));
+        attempts.add(attempt);
+    }
+
+    /**
+     * Reads from a peer and records the latency of a read that found
+     * something. Only the latencies of the hedgeable reads go to the window
+     * the hedging threshold is computed from, so that slow queries do not
+     * raise it. A failure, or an empty answer for a block below the height of
+     * the peer, keeps the peer from getting reads until its next probe. A
+     * block found, or a blockchain info answered, raises the known height of
+     * the peer.
+     *
+     * @param peer
+     *            the peer
+     * @param call
+     *            the read
+     * @param empty
+     *            the answer when nothing is found
+     * @param blockNumber
+     *            the number of the block read, or -1
+     * @param hedgeable
+     *            whether the read is a getBlock or getTransaction, which may
+     *            be hedged
+     * @return the answer
+     */
+    private <T> T timedRead(Peer peer, Function<Blockchain, T> call, T empty, long blockNumber, boolean hedgeable) {
+        long start = System.nanoTime();
+        T answer;
+        try {
+            answer = call.apply(peer.blockchain);
+        } catch (BlockchainException e) {
+            if (e.isRetryable() || e instanceof CircuitOpenException) {
+                peer.healthy = false;
+            }
+            throw e;
+        }
+        if (answer == empty) {
+            if (blockNumber >= 0 && blockNumber < peer.height) {
+                peer.healthy = false;
+            }
+            return answer;
+        }
+        if (hedgeable) {
+            peer.recordRead(System.nanoTime() - start);
+        } else {
+            peer.record(System.nanoTime() - start);
+        }
+        if (blockNumber >= 0) {
+            raiseHeight(peer, blockNumber + 1);
+        } else if (answer instanceof BlockchainInfo) {
+            raiseHeight(peer, ((BlockchainInfo) answer).getHeight());
+        }
+        return answer;
+    }
+
+    /**
+     * Raises the known height of a peer, and the highest height, to a height
+     * the peer has shown it reached since its last probe.
+     *
+     * @param peer
+     *            the peer
+     * @param height
+     *            the height
+     */
+    private void raiseHeight(Peer peer, long height) {
+        synchronized (peer) {
+            if (height > peer.height) {
+                peer.height = height;
+            }
+        }
+        if (peer.healthy) {
+            synchronized (this) {
+                if (height > maxHeight) {
+                    maxHeight = height;
+                }
+            }
+        }
+    }
+
+    /**
+     * Probes a peer: measures its latency and updates its height and health.
+     * A failed probe is not part of the latency.
+     *
+     * @param peer
+     *            the peer
+     */
+    private void probe(Peer peer) {
+        long start = System.nanoTime();
+        try {
+            BlockchainInfo info = peer.blockchain.getBlockchainInfo();
+            peer.record(System.nanoTime() - start);
+            peer.height = info.getHeight();
+            peer.healthy = info.getHeight() > 0;
+        } catch (BlockchainException e) {
+            peer.healthy = false;
+        }
+
+        long max = 0;
+        for (Peer other : peers) {
+            if (other.healthy && other.height > max) {
+                max = other.height;
+            }
+        }
+        maxHeight = max;
+    }
+
+    /**
+     * Tells whether a peer may get reads.
+     *
+     * @param peer
+     *            the peer
+     * @return true if the peer is healthy and not lagging
+     */
+    private boolean isAvailable(Peer peer) {
+        return peer.healthy && peer.height + maxHeightLag >= maxHeight
+                && peer.blockchain.getCircuitBreaker().getState() != CircuitBreaker.State.OPEN;
+    }
+
+    /**
+     * Tells whether a peer is known to hold a block. When no peer is known to
+     * hold it, because it is at or above the highest height, every peer may.
+     *
+     * @param peer
+     *            the peer
+     * @param blockNumber
+     *            the block number, or -1 when the read is not a block read
+     * @return true if the peer may be asked for the block
+     */
+    private boolean holds(Peer peer, long blockNumber) {
+        return blockNumber < 0 || blockNumber >= maxHeight || peer.height > blockNumber;
+    }
+
+    /**
+     * Chooses the peer of a hedged or repeated read: the fastest available
+     * peer other than the first one that is known to hold the block.
+     *
+     * @param first
+     *            the peer of the first read
+     * @param blockNumber
+     *            the number of the block read, or -1
+     * @return the peer, or null if there is no other peer
+     */
+    private Peer chooseOther(Peer first, long blockNumber) {
+        Peer best = null;
+        for (Peer peer : peers) {
+            if (peer != first && isAvailable(peer) && holds(peer, blockNumber)
+                    && (best == null || peer.getLatency() < best.getLatency())) {
+                best = peer;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Chooses the peer of a read: the faster of two available peers known to
+     * hold the block, picked at random. When no such peer is available, any
+     * available peer may be picked, and any peer when none is available.
+     *
+     * @param blockNumber
+     *            the number of the block read, or -1
+     * @return the peer
+     */
+    private Peer choose(long blockNumber) {
+        Peer[] candidates = new Peer[peers.length];
+        int count = 0;
+        for (Peer peer : peers) {
+            if (isAvailable(peer) && holds(peer, blockNumber)) {
+                candidates[count++] = peer;
+            }
+        }
+        if (count == 0) {
+            for (Peer peer : peers) {
+                if (isAvailable(peer)) {
+                    candidates[count++] = peer;
+                }
+            }
+        }
+        if (count == 0) {
+            candidates = peers;
+            count = peers.length;
+        }
+        if (count == 1) {
+            return candidates[0];
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(count);
+        int second = random.nextInt(count - 1);
+        if (second >= first) {
+            second++;
+        }
+        Peer a = candidates[first];
+        Peer b = candidates[second];
+        return a.getLatency() <= b.getLatency() ? a : b;
+    }
+}
@@ -0,0 +1,97 @@
+package fabric4j;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import ledger.TransactionIndex;
+import objects.exception.BlockchainException;
+import protos.Openchain.Transaction;
+
+/**
+ * The Class TransactionLookup.
+ *
+ * Looks up many transactions at once for the getTransactions methods: the
+ * UUIDs are deduplicated, those in the local index are answered from it, and
+ * the others are fetched by a bounded number of workers, the calling thread
+ * being one of them.
+ *
+ * @author Quentin Le Sceller
+ */
+final class TransactionLookup {
+
+    /** The executor of the workers, whose idle threads die after a minute. */
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "fabric4j-lookup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private TransactionLookup() {
+    }
+
+    /**
+     * Looks up transactions.
+     *
+     * @param fetch
+     *            the fetch of a transaction missing from the index, which
+     *            gives the default instance if it is not found
+     * @param uuids
+     *            the uuids, possibly with duplicates
+     * @param index
+     *            the local index, or null
+     * @param parallelism
+     *            the max number of transactions fetched at once
+     * @return the transactions found, by uuid
+     * @throws BlockchainException
+     *             if a fetch fails; the other fetches are then abandoned
+     */
+    static Map<String, Transaction> lookup(Function<String, Transaction> fetch, Collection<String> uuids,
+            TransactionIndex index, int parallelism) {
+        Map<String, Transaction> found = new ConcurrentHashMap<String, Transaction>();
+        Queue<String> missing = new ConcurrentLinkedQueue<String>();
+        for (String uuid : new LinkedHashSet<String>(uuids)) {
+            Transaction transaction = index != null ? index.get(uuid) : null;
+            if (transaction != null) {
+                found.put(uuid, transaction);
+            } else {
+                missing.add(uuid);
+            }
+        }
+
+        AtomicReference<BlockchainException> failure = new AtomicReference<BlockchainException>();
+        Runnable worker = () -> {
+            String uuid;
+            while (failure.get() == null && (uuid = missing.poll()) != null) {
+                try {
+                    Transaction transaction = fetch.apply(uuid);
+                    if (transaction != Transaction.getDefaultInstance()) {
+                        found.put(uuid, transaction);
+                    }
+                } catch (BlockchainException e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        };
+        int helpers = Math.min(parallelism, missing.size()) - 1;
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[Math.max(0, helpers)];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = CompletableFuture.runAsync(worker, EXECUTOR);
+        }
+        worker.run();
+        CompletableFuture.allOf(futures).join();
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return found;
+    }
+}
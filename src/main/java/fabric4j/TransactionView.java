@@ -0,0 +1,237 @@
+package fabric4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import protos.Chaincode.ChaincodeDeploymentSpec;
+import protos.Chaincode.ChaincodeInput;
+import protos.Chaincode.ChaincodeInvocationSpec;
+import protos.Chaincode.ChaincodeSpec;
+import protos.Openchain.Transaction;
+
+/**
+ * The Class TransactionView.
+ *
+ * Wraps a transaction and decodes its payload, a ChaincodeDeploymentSpec for
+ * CHAINCODE_NEW and CHAINCODE_UPDATE transactions and a
+ * ChaincodeInvocationSpec otherwise, on first access only. The function name
+ * and arguments can be read without decoding the whole spec: only the
+ * constructor message is walked. Decoded values are memoized, and a view can
+ * be shared between threads.
+ *
+ * @author Quentin Le Sceller
+ */
+public class TransactionView {
+
+    /** The tag of chaincodeSpec in both spec messages. */
+    private static final int CHAINCODE_SPEC_TAG = 1 << 3 | 2;
+
+    /** The tag of ctorMsg in ChaincodeSpec. */
+    private static final int CTOR_MSG_TAG = 3 << 3 | 2;
+
+    /** The tag of function in ChaincodeInput. */
+    private static final int FUNCTION_TAG = 1 << 3 | 2;
+
+    /** The tag of args in ChaincodeInput. */
+    private static final int ARGS_TAG = 2 << 3 | 2;
+
+    /** The transaction. */
+    private final Transaction transaction;
+
+    /** The decoded deployment spec. */
+    private volatile ChaincodeDeploymentSpec deploymentSpec;
+
+    /** The decoded invocation spec. */
+    private volatile ChaincodeInvocationSpec invocationSpec;
+
+    /** The decoded constructor message. */
+    private volatile ChaincodeInput ctorMsg;
+
+    /**
+     * Instantiates a new transaction view.
+     *
+     * @param transaction
+     *            the transaction
+     */
+    public TransactionView(Transaction transaction) {
+        this.transaction = transaction;
+    }
+
+    /**
+     * Gets the transaction.
+     *
+     * @return the transaction
+     */
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    /**
+     * Checks if the payload is a deployment spec.
+     *
+     * @return true, if the transaction deploys or updates a chaincode
+     */
+    public boolean isDeployment() {
+        Transaction.Type type = transaction.getType();
+        return type == Transaction.Type.CHAINCODE_NEW || type == Transaction.Type.CHAINCODE_UPDATE;
+    }
+
+    /**
+     * Gets the deployment spec.
+     *
+     * @return the deployment spec, or null if the transaction is not a
+     *         deployment
+     * @throws InvalidProtocolBufferException
+     *             if the payload cannot be decoded
+     */
+    public ChaincodeDeploymentSpec getDeploymentSpec() throws InvalidProtocolBufferException {
+        if (!isDeployment()) {
+            return null;
+        }
+        ChaincodeDeploymentSpec spec = deploymentSpec;
+        if (spec == null) {
+            spec = ChaincodeDeploymentSpec.parseFrom(transaction.getPayload());
+            deploymentSpec = spec;
+        }
+        return spec;
+    }
+
+    /**
+     * Gets the invocation spec.
+     *
+     * @return the invocation spec, or null if the transaction is a deployment
+     * @throws InvalidProtocolBufferException
+     *             if the payload cannot be decoded
+     */
+    public ChaincodeInvocationSpec getInvocationSpec() throws InvalidProtocolBufferException {
+        if (isDeployment()) {
+            return null;
+        }
+        ChaincodeInvocationSpec spec = invocationSpec;
+        if (spec == null) {
+            spec = ChaincodeInvocationSpec.parseFrom(transaction.getPayload());
+            invocationSpec = spec;
+        }
+        return spec;
+    }
+
+    /**
+     * Gets the chaincode spec, from the deployment or the invocation spec.
+     *
+     * @return the chaincode spec
+     * @throws InvalidProtocolBufferException
+     *             if the payload cannot be decoded
+     */
+    public ChaincodeSpec getChaincodeSpec() throws InvalidProtocolBufferException {
+        return isDeployment() ? getDeploymentSpec().getChaincodeSpec() : getInvocationSpec().getChaincodeSpec();
+    }
+
+    /**
+     * Gets the function name.
+     *
+     * @return the function name
+     * @throws InvalidProtocolBufferException
+     *             if the payload cannot be decoded
+     */
+    public String getFunction() throws InvalidProtocolBufferException {
+        return getCtorMsg().getFunction();
+    }
+
+    /**
+     * Gets the function arguments.
+     *
+     * @return the arguments
+     * @throws InvalidProtocolBufferException
+     *             if the payload cannot be decoded
+     */
+    public List<String> getArgs() throws InvalidProtocolBufferException {
+        return getCtorMsg().getArgsList();
+    }
+
+    /**
+     * Gets the constructor message, from a spec already decoded or by walking
+     * the payload down to it.
+     *
+     * @return the constructor message
+     * @throws InvalidProtocolBufferException
+     *             if the payload cannot be decoded
+     */
+    private ChaincodeInput getCtorMsg() throws InvalidProtocolBufferException {
+        ChaincodeInput input = ctorMsg;
+        if (input != null) {
+            return input;
+        }
+        if (deploymentSpec != null) {
+            input = deploymentSpec.getChaincodeSpec().getCtorMsg();
+        } else if (invocationSpec != null) {
+            input = invocationSpec.getChaincodeSpec().getCtorMsg();
+        } else {
+            input = readCtorMsg();
+        }
+        ctorMsg = input;
+        return input;
+    }
+
+    /**
+     * Reads the function and arguments from the payload, skipping every
+     * other field.
+     *
+     * @return the constructor message
+     * @throws InvalidProtocolBufferException
+     *             if the payload cannot be decoded
+     */
+    private ChaincodeInput readCtorMsg() throws InvalidProtocolBufferException {
+        CodedInputStream input = transaction.getPayload().newCodedInput();
+        String function = "";
+        List<String> args = new ArrayList<String>();
+        try {
+            if (enter(input, CHAINCODE_SPEC_TAG) && enter(input, CTOR_MSG_TAG)) {
+                int tag;
+                while ((tag = input.readTag()) != 0) {
+                    if (tag == FUNCTION_TAG) {
+                        function = input.readStringRequireUtf8();
+                    } else if (tag == ARGS_TAG) {
+                        args.add(input.readStringRequireUtf8());
+                    } else if (!input.skipField(tag)) {
+                        break;
+                    }
+                }
+            }
+        } catch (InvalidProtocolBufferException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new InvalidProtocolBufferException(e.getMessage());
+        }
+        return ChaincodeInput.newBuilder().setFunction(function).addAllArgs(args).build();
+    }
+
+    /**
+     * Skips fields until a message field and limits the input to it.
+     *
+     * @param input
+     *            the input
+     * @param tag
+     *            the tag of the message field
+     * @return true, if the field was found
+     * @throws IOException
+     *             if the input is malformed
+     */
+    private static boolean enter(CodedInputStream input, int tag) throws IOException {
+        int current;
+        while ((current = input.readTag()) != 0) {
+            if (current == tag) {
+                input.pushLimit(input.readRawVarint32());
+                return true;
+            }
+            if (!input.skipField(current)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,273 @@
+package ledger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import protos.Openchain.Block;
+
+/**
+ * The Class BlockArena.
+ *
+ * Keeps consecutive serialized blocks off the heap, in direct buffers
+ * allocated in large arenas, and parses a block only when it is asked for.
+ * The position of each block is tracked in primitive arrays, so millions of
+ * resident blocks cost a few bytes of heap each instead of a protobuf object
+ * graph.
+ *
+ * Blocks are appended in chain order and read concurrently; all methods are
+ * thread safe.
+ * <p/>
+ * The direct memory reserved by an arena is bounded, 1 GB by default, and
+ * append fails once the bound is reached, rather than the JVM failing later
+ * when -XX:MaxDirectMemorySize is exceeded. The memory is returned when the
+ * buffers are garbage collected: close drops them at once, but the views
+ * returned by getSerializedBlock keep their arena alive until they are
+ * dropped too.
+ *
+ * @author Quentin Le Sceller
+ */
+public class BlockArena implements Closeable {
+
+    /** The default arena size, in bytes. */
+    private static final int DEFAULT_ARENA_SIZE = 64 << 20;
+
+    /** The default max number of bytes reserved, 1 GB. */
+    private static final long DEFAULT_MAX_RESERVED_BYTES = 1L << 30;
+
+    /** The arena size, in bytes. */
+    private final int arenaSize;
+
+    /** The max number of bytes reserved off the heap. */
+    private final long maxReservedBytes;
+
+    /** The number of the first block. */
+    private final int firstBlockNumber;
+
+    /** The arenas. */
+    private ByteBuffer[] arenas = new ByteBuffer[4];
+
+    /** The number of arenas. */
+    private int arenaCount;
+
+    /** The arena of each block. */
+    private int[] blockArenas = new int[1024];
+
+    /** The offset of each block in its arena. */
+    private int[] blockOffsets = new int[1024];
+
+    /** The serialized size of each block. */
+    private int[] blockSizes = new int[1024];
+
+    /** The number of blocks. */
+    private int blockCount;
+
+    /** The number of bytes used. */
+    private long usedBytes;
+
+    /** The number of bytes reserved off the heap. */
+    private long reservedBytes;
+
+    /** Whether the arena is closed. */
+    private boolean closed;
+
+    /**
+     * Instantiates a new block arena with 64 MB arenas, reserving up to 1 GB.
+     *
+     * @param firstBlockNumber
+     *            the number of the first block appended
+     */
+    public BlockArena(int firstBlockNumber) {
+        this(firstBlockNumber, DEFAULT_ARENA_SIZE, DEFAULT_MAX_RESERVED_BYTES);
+    }
+
+    /**
+     * Instantiates a new block arena reserving up to 1 GB.
+     *
+     * @param firstBlockNumber
+     *            the number of the first block appended
+     * @param arenaSize
+     *            the size of each arena, in bytes; a larger block gets an
+     *            arena of its own
+     */
+    public BlockArena(int firstBlockNumber, int arenaSize) {
+        this(firstBlockNumber, arenaSize, DEFAULT_MAX_RESERVED_BYTES);
+    }
+
+    /**
+     * Instantiates a new block arena.
+     *
+     * @param firstBlockNumber
+     *            the number of the first block appended
+     * @param arenaSize
+     *            the size of each arena, in bytes; a larger block gets an
+     *            arena of its own
+     * @param maxReservedBytes
+     *            the max number of bytes reserved off the heap
+     */
+    public BlockArena(int firstBlockNumber, int arenaSize, long maxReservedBytes) {
+        if (arenaSize < 1 || maxReservedBytes < arenaSize) {
+            throw new IllegalArgumentException("The arena size must be positive and at most the max reserved bytes.");
+        }
+        this.firstBlockNumber = firstBlockNumber;
+        this.arenaSize = arenaSize;
+        this.maxReservedBytes = maxReservedBytes;
+    }
+
+    /**
+     * Appends the next block.
+     *
+     * @param block
+     *            the block
+     * @return the block number
+     * @throws IllegalStateException
+     *             if the arena is closed or the block would exceed the max
+     *             reserved bytes
+     */
+    public synchronized int append(Block block) {
+        if (closed) {
+            throw new IllegalStateException("The block arena is closed.");
+        }
+        int size = block.getSerializedSize();
+        ByteBuffer arena = arenaCount == 0 ? null : arenas[arenaCount - 1];
+        if (arena == null || arena.remaining() < size) {
+            arena = newArena(Math.max(size, arenaSize));
+        }
+
+        if (blockCount == blockOffsets.length) {
+            blockArenas = Arrays.copyOf(blockArenas, blockCount * 2);
+            blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+            blockSizes = Arrays.copyOf(blockSizes, blockCount * 2);
+        }
+        int offset = arena.position();
+        ByteBuffer slice = arena.duplicate();
+        slice.limit(offset + size);
+        try {
+            CodedOutputStream output = CodedOutputStream.newInstance(slice);
+            block.writeTo(output);
+            output.flush();
+        } catch (IOException e) {
+            // Only thrown when the slice is too small, which cannot happen.
+            throw new IllegalStateException(e);
+        }
+        arena.position(offset + size);
+
+        blockArenas[blockCount] = arenaCount - 1;
+        blockOffsets[blockCount] = offset;
+        blockSizes[blockCount] = size;
+        usedBytes += size;
+        return firstBlockNumber + blockCount++;
+    }
+
+    /**
+     * Parses a block from the arena.
+     *
+     * @param blockNumber
+     *            the block number
+     * @return the block
+     * @throws InvalidProtocolBufferException
+     *             if the stored bytes cannot be parsed
+     */
+    public Block getBlock(int blockNumber) throws InvalidProtocolBufferException {
+        return Block.parser().parseFrom(CodedInputStream.newInstance(getSerializedBlock(blockNumber)));
+    }
+
+    /**
+     * Gets a read-only view of the serialized bytes of a block.
+     *
+     * @param blockNumber
+     *            the block number
+     * @return the serialized block
+     */
+    public synchronized ByteBuffer getSerializedBlock(int blockNumber) {
+        int index = blockNumber - firstBlockNumber;
+        if (index < 0 || index >= blockCount) {
+            throw new IndexOutOfBoundsException("Block " + blockNumber + " is not in the arena.");
+        }
+        ByteBuffer slice = arenas[blockArenas[index]].asReadOnlyBuffer();
+        slice.limit(blockOffsets[index] + blockSizes[index]);
+        slice.position(blockOffsets[index]);
+        return slice;
+    }
+
+    /**
+     * Checks if a block is in the arena.
+     *
+     * @param blockNumber
+     *            the block number
+     * @return true, if the block is in the arena
+     */
+    public synchronized boolean contains(int blockNumber) {
+        int index = blockNumber - firstBlockNumber;
+        return index >= 0 && index < blockCount;
+    }
+
+    /**
+     * Gets the number of the first block.
+     *
+     * @return the first block number
+     */
+    public int getFirstBlockNumber() {
+        return firstBlockNumber;
+    }
+
+    /**
+     * Gets the number of blocks.
+     *
+     * @return the block count
+     */
+    public synchronized int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Gets the number of bytes used by the serialized blocks.
+     *
+     * @return the used bytes
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Gets the number of bytes reserved off the heap.
+     *
+     * @return the reserved bytes
+     */
+    public synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * Drops the blocks and the arenas, so that their direct memory is
+     * returned once no view of a block remains. Appending afterwards fails.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        Arrays.fill(arenas, null);
+        arenaCount = 0;
+        blockCount = 0;
+        usedBytes = 0;
+        reservedBytes = 0;
+    }
+
+    private ByteBuffer newArena(int size) {
+        if (reservedBytes + size > maxReservedBytes) {
+            throw new IllegalStateException("The block arena would exceed " + maxReservedBytes + " bytes.");
+        }
+        if (arenaCount == arenas.length) {
+            arenas = Arrays.copyOf(arenas, arenaCount * 2);
+        }
+        ByteBuffer arena = ByteBuffer.allocateDirect(size);
+        arenas[arenaCount++] = arena;
+        reservedBytes += size;
+        return arena;
+    }
+
+}
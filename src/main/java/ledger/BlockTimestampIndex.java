@@ -0,0 +1,220 @@
+package ledger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import fabric4j.IBlockchain;
+import protos.Openchain.Block;
+
+/**
+ * The Class BlockTimestampIndex.
+ *
+ * A sparse index from block numbers to block timestamps, used to find the
+ * blocks of a time range by binary search instead of walking the chain from
+ * genesis. Only the blocks probed by a search are recorded, and block
+ * timestamps are assumed not to decrease along the chain. The index can be
+ * saved to a file and loaded back, so that later searches start narrower.
+ *
+ * All methods are synchronized.
+ *
+ * @author Quentin Le Sceller
+ */
+public class BlockTimestampIndex {
+
+    /** The file format marker. */
+    private static final int MAGIC = 0x46344A54;
+
+    /** The known block numbers, ascending. */
+    private int[] blockNumbers = new int[16];
+
+    /** The timestamps of the known blocks, in epoch nanos. */
+    private long[] timestamps = new long[16];
+
+    /** The number of known blocks. */
+    private int size;
+
+    /**
+     * Loads an index from a file.
+     *
+     * @param file
+     *            the file
+     * @return the index, empty if the file does not exist
+     * @throws IOException
+     *             Signals that the file could not be read.
+     */
+    public static BlockTimestampIndex load(File file) throws IOException {
+        BlockTimestampIndex index = new BlockTimestampIndex();
+        if (!file.exists()) {
+            return index;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a block timestamp index: " + file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                index.put(in.readInt(), in.readLong());
+            }
+        } finally {
+            in.close();
+        }
+        return index;
+    }
+
+    /**
+     * Saves the index to a file. The index is written to a temporary file
+     * first, then moved over the file, so that a crash while saving leaves
+     * the previous index intact.
+     *
+     * @param file
+     *            the file
+     * @throws IOException
+     *             Signals that the file could not be written.
+     */
+    public synchronized void save(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeInt(blockNumbers[i]);
+                out.writeLong(timestamps[i]);
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Records the timestamp of a block.
+     *
+     * @param blockNumber
+     *            the block number
+     * @param timestamp
+     *            the timestamp, in epoch nanos
+     */
+    public synchronized void put(int blockNumber, long timestamp) {
+        int position = Arrays.binarySearch(blockNumbers, 0, size, blockNumber);
+        if (position >= 0) {
+            timestamps[position] = timestamp;
+            return;
+        }
+        position = -position - 1;
+        if (size == blockNumbers.length) {
+            blockNumbers = Arrays.copyOf(blockNumbers, size * 2);
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+        }
+        System.arraycopy(blockNumbers, position, blockNumbers, position + 1, size - position);
+        System.arraycopy(timestamps, position, timestamps, position + 1, size - position);
+        blockNumbers[position] = blockNumber;
+        timestamps[position] = timestamp;
+        size++;
+    }
+
+    /**
+     * Gets the number of known blocks.
+     *
+     * @return the size
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Gets the blocks whose timestamp is in [from, to), found by binary search
+     * over the block timestamps. This is the getBlocksBetween of the
+     * IBlockchain implementations.
+     *
+     * @param blockchain
+     *            the blockchain to fetch blocks from
+     * @param from
+     *            the first instant
+     * @param to
+     *            the end instant
+     * @return the blocks, in chain order
+     */
+    public List<Block> getBlocksBetween(IBlockchain blockchain, Instant from, Instant to) {
+        int height = (int) blockchain.getBlockchainInfo().getHeight();
+
+        int first = firstBlockAtOrAfter(blockchain, from, height);
+        int end = firstBlockAtOrAfter(blockchain, to, height);
+
+        ArrayList<Block> blocks = new ArrayList<Block>();
+        for (int blockNumber = first; blockNumber < end; blockNumber++) {
+            blocks.add(blockchain.getBlock(blockNumber));
+        }
+        return blocks;
+    }
+
+    /**
+     * Finds the first block whose timestamp is at or after an instant,
+     * fetching the blocks probed by the binary search.
+     *
+     * @param blockchain
+     *            the blockchain to fetch blocks from
+     * @param instant
+     *            the instant
+     * @param height
+     *            the height of the chain
+     * @return the block number, or height if every block is before the instant
+     */
+    public int firstBlockAtOrAfter(IBlockchain blockchain, Instant instant, int height) {
+        long target = toNanos(instant);
+        int low = 0;
+        int high = height;
+
+        synchronized (this) {
+            for (int i = 0; i < size && blockNumbers[i] < height; i++) {
+                if (timestamps[i] < target) {
+                    low = Math.max(low, blockNumbers[i] + 1);
+                } else {
+                    high = Math.min(high, blockNumbers[i]);
+                    break;
+                }
+            }
+        }
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            Block block = blockchain.getBlock(middle);
+            long timestamp = TransactionTable.toNanos(block.getTimestamp());
+            if (block.hasTimestamp()) {
+                put(middle, timestamp);
+            }
+            if (timestamp < target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Converts an instant to epoch nanos.
+     *
+     * @param instant
+     *            the instant
+     * @return the epoch nanos
+     */
+    private static long toNanos(Instant instant) {
+        return instant.getEpochSecond() * 1000000000L + instant.getNano();
+    }
+
+}
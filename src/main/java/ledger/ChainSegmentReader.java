@@ -0,0 +1,277 @@
+package ledger;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.google.protobuf.CodedInputStream;
+
+import protos.Openchain.Block;
+
+/**
+ * The Class ChainSegmentReader.
+ *
+ * Streams the blocks of a chain segment file written by a
+ * ChainSegmentWriter, in chain order, and can seek to a block through the
+ * trailing index.
+ *
+ * @author Quentin Le Sceller
+ */
+public class ChainSegmentReader implements Closeable {
+
+    /** The file. */
+    private final RandomAccessFile file;
+
+    /** The compressed flag. */
+    private final boolean compressed;
+
+    /** The first block number. */
+    private final int firstBlockNumber;
+
+    /** The number of blocks. */
+    private final int blockCount;
+
+    /** The first block number of each chunk. */
+    private final int[] chunkBlocks;
+
+    /** The file offset of each chunk, followed by the index offset. */
+    private final long[] chunkOffsets;
+
+    /** The current chunk. */
+    private int chunk = -1;
+
+    /** The input of the current chunk. */
+    private InputStream chunkInput;
+
+    /** The inflater of the current chunk. */
+    private Inflater inflater;
+
+    /** The number of the next block. */
+    private int nextBlockNumber;
+
+    /**
+     * Instantiates a new chain segment reader.
+     *
+     * @param file
+     *            the file
+     * @throws IOException
+     *             Signals that the file could not be read or is not a chain
+     *             segment.
+     */
+    public ChainSegmentReader(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        try {
+            if (this.file.readInt() != ChainSegmentWriter.MAGIC) {
+                throw new IOException("Not a chain segment: " + file);
+            }
+            int version = this.file.readByte();
+            if (version != ChainSegmentWriter.VERSION) {
+                throw new IOException("Unsupported chain segment version " + version + ": " + file);
+            }
+            compressed = this.file.readBoolean();
+            firstBlockNumber = this.file.readInt();
+
+            this.file.seek(this.file.length() - ChainSegmentWriter.FOOTER_SIZE);
+            long indexOffset = this.file.readLong();
+            blockCount = this.file.readInt();
+            if (this.file.readInt() != ChainSegmentWriter.MAGIC) {
+                throw new IOException("Truncated chain segment: " + file);
+            }
+
+            this.file.seek(indexOffset);
+            int chunkCount = this.file.readInt();
+            chunkBlocks = new int[chunkCount];
+            chunkOffsets = new long[chunkCount + 1];
+            for (int i = 0; i < chunkCount; i++) {
+                chunkBlocks[i] = this.file.readInt();
+                chunkOffsets[i] = this.file.readLong();
+            }
+            chunkOffsets[chunkCount] = indexOffset;
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+        nextBlockNumber = firstBlockNumber;
+    }
+
+    /**
+     * Gets the number of the first block of the segment.
+     *
+     * @return the first block number
+     */
+    public int getFirstBlockNumber() {
+        return firstBlockNumber;
+    }
+
+    /**
+     * Gets the number of blocks of the segment.
+     *
+     * @return the block count
+     */
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Gets the number of the block returned by the next call to next.
+     *
+     * @return the next block number
+     */
+    public int getNextBlockNumber() {
+        return nextBlockNumber;
+    }
+
+    /**
+     * Checks for a next block.
+     *
+     * @return true, if there is a next block
+     */
+    public boolean hasNext() {
+        return nextBlockNumber < firstBlockNumber + blockCount;
+    }
+
+    /**
+     * Reads the next block.
+     *
+     * @return the block, or null at the end of the segment
+     * @throws IOException
+     *             Signals that the block could not be read.
+     */
+    public Block next() throws IOException {
+        if (!hasNext()) {
+            return null;
+        }
+        if (chunk < 0 || chunk + 1 < chunkBlocks.length && nextBlockNumber >= chunkBlocks[chunk + 1]) {
+            openChunk(chunk + 1);
+        }
+        Block block = Block.parseDelimitedFrom(chunkInput);
+        if (block == null) {
+            throw new IOException("Unexpected end of chunk at block " + nextBlockNumber);
+        }
+        nextBlockNumber++;
+        return block;
+    }
+
+    /**
+     * Moves to a block, so that the next call to next returns it. Only the
+     * chunk holding the block is read.
+     *
+     * @param blockNumber
+     *            the block number
+     * @throws IOException
+     *             Signals that the segment could not be read.
+     */
+    public void seek(int blockNumber) throws IOException {
+        if (blockNumber < firstBlockNumber || blockNumber > firstBlockNumber + blockCount) {
+            throw new IndexOutOfBoundsException("Block " + blockNumber + " is not in the segment.");
+        }
+        if (blockNumber == firstBlockNumber + blockCount) {
+            nextBlockNumber = blockNumber;
+            return;
+        }
+        int target = chunkBlocks.length - 1;
+        while (chunkBlocks[target] > blockNumber) {
+            target--;
+        }
+        if (target != chunk || blockNumber < nextBlockNumber) {
+            openChunk(target);
+        }
+        while (nextBlockNumber < blockNumber) {
+            int firstByte = chunkInput.read();
+            int length = CodedInputStream.readRawVarint32(firstByte, chunkInput);
+            long skipped = 0;
+            while (skipped < length) {
+                long step = chunkInput.skip(length - skipped);
+                if (step <= 0) {
+                    throw new IOException("Unexpected end of chunk at block " + nextBlockNumber);
+                }
+                skipped += step;
+            }
+            nextBlockNumber++;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() throws IOException {
+        closeChunk();
+        file.close();
+    }
+
+    private void openChunk(int index) throws IOException {
+        closeChunk();
+        chunk = index;
+        nextBlockNumber = chunkBlocks[index];
+        file.seek(chunkOffsets[index]);
+
+        // The chunk stream must not close the file when it is closed.
+        InputStream input = new FilterInputStream(Channels.newInputStream(file.getChannel())) {
+            private long remaining = chunkOffsets[chunk + 1] - chunkOffsets[chunk];
+
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int b = in.read();
+                if (b >= 0) {
+                    remaining--;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int count = in.read(b, off, (int) Math.min(len, remaining));
+                if (count > 0) {
+                    remaining -= count;
+                }
+                return count;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long count = in.skip(Math.min(n, remaining));
+                remaining -= count;
+                return count;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return (int) Math.min(in.available(), remaining);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        if (compressed) {
+            inflater = new Inflater();
+            input = new InflaterInputStream(input, inflater, 1 << 16);
+        }
+        chunkInput = new BufferedInputStream(input, 1 << 16);
+    }
+
+    private void closeChunk() {
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+        chunkInput = null;
+    }
+
+}
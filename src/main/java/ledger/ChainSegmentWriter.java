@@ -0,0 +1,225 @@
+package ledger;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import fabric4j.IBlockchain;
+import protos.Openchain.Block;
+
+/**
+ * The Class ChainSegmentWriter.
+ *
+ * Writes consecutive blocks to a chain segment file, as length-delimited
+ * Block messages. The blocks are grouped in chunks which are optionally
+ * deflated independently, and a trailing index gives the file offset of each
+ * chunk so that a reader can seek to a block without reading the whole file.
+ *
+ * Layout: header (magic, version, compressed flag, first block number),
+ * chunks, index (chunk count, then first block number and offset of each
+ * chunk), footer (index offset, block count, magic).
+ *
+ * @author Quentin Le Sceller
+ */
+public class ChainSegmentWriter implements Closeable {
+
+    /** The file format marker. */
+    static final int MAGIC = 0x46344A53;
+
+    /** The file format version. */
+    static final int VERSION = 1;
+
+    /** The size of the footer, in bytes. */
+    static final int FOOTER_SIZE = 16;
+
+    /** The number of blocks per chunk. */
+    static final int CHUNK_SIZE = 256;
+
+    /** The file output. */
+    private final FileOutputStream fileOutput;
+
+    /** The buffered output. */
+    private final DataOutputStream output;
+
+    /** The compressed flag. */
+    private final boolean compressed;
+
+    /** The first block number. */
+    private final int firstBlockNumber;
+
+    /** The first block number of each chunk. */
+    private int[] chunkBlocks = new int[16];
+
+    /** The file offset of each chunk. */
+    private long[] chunkOffsets = new long[16];
+
+    /** The number of chunks. */
+    private int chunkCount;
+
+    /** The number of blocks written. */
+    private int blockCount;
+
+    /** The deflater of the current chunk. */
+    private Deflater deflater;
+
+    /** The output of the current chunk. */
+    private OutputStream chunkOutput;
+
+    /**
+     * Exports blocks from a blockchain to a segment file.
+     *
+     * @param blockchain
+     *            the blockchain
+     * @param from
+     *            the first block number
+     * @param to
+     *            the last block number
+     * @param file
+     *            the file
+     * @param compressed
+     *            whether to deflate the chunks
+     * @throws IOException
+     *             Signals that the file could not be written.
+     */
+    public static void export(IBlockchain blockchain, int from, int to, File file, boolean compressed)
+            throws IOException {
+        ChainSegmentWriter writer = new ChainSegmentWriter(file, from, compressed);
+        try {
+            for (int blockNumber = from; blockNumber <= to; blockNumber++) {
+                writer.append(blockchain.getBlock(blockNumber));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Instantiates a new chain segment writer.
+     *
+     * @param file
+     *            the file
+     * @param firstBlockNumber
+     *            the number of the first block appended
+     * @param compressed
+     *            whether to deflate the chunks
+     * @throws IOException
+     *             Signals that the file could not be created.
+     */
+    public ChainSegmentWriter(File file, int firstBlockNumber, boolean compressed) throws IOException {
+        this.fileOutput = new FileOutputStream(file);
+        this.output = new DataOutputStream(new BufferedOutputStream(fileOutput, 1 << 16));
+        this.compressed = compressed;
+        this.firstBlockNumber = firstBlockNumber;
+
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+        output.writeBoolean(compressed);
+        output.writeInt(firstBlockNumber);
+    }
+
+    /**
+     * Appends the next block.
+     *
+     * @param block
+     *            the block
+     * @throws IOException
+     *             Signals that the block could not be written.
+     */
+    public void append(Block block) throws IOException {
+        if (blockCount % CHUNK_SIZE == 0) {
+            finishChunk();
+            startChunk();
+        }
+        block.writeDelimitedTo(chunkOutput);
+        blockCount++;
+    }
+
+    /**
+     * Gets the number of blocks written.
+     *
+     * @return the block count
+     */
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Writes the index and closes the file.
+     *
+     * @throws IOException
+     *             Signals that the index could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finishChunk();
+            long indexOffset = position();
+            output.writeInt(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                output.writeInt(chunkBlocks[i]);
+                output.writeLong(chunkOffsets[i]);
+            }
+            output.writeLong(indexOffset);
+            output.writeInt(blockCount);
+            output.writeInt(MAGIC);
+            output.flush();
+        } finally {
+            output.close();
+        }
+    }
+
+    private void startChunk() throws IOException {
+        if (chunkCount == chunkBlocks.length) {
+            chunkBlocks = Arrays.copyOf(chunkBlocks, chunkCount * 2);
+            chunkOffsets = Arrays.copyOf(chunkOffsets, chunkCount * 2);
+        }
+        chunkBlocks[chunkCount] = firstBlockNumber + blockCount;
+        chunkOffsets[chunkCount] = position();
+        chunkCount++;
+
+        // The chunk stream must not close the file when it is finished.
+        OutputStream unclosable = new FilterOutputStream(output) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        if (compressed) {
+            deflater = new Deflater();
+            chunkOutput = new DeflaterOutputStream(unclosable, deflater, 1 << 16);
+        } else {
+            chunkOutput = unclosable;
+        }
+    }
+
+    private void finishChunk() throws IOException {
+        if (chunkOutput == null) {
+            return;
+        }
+        if (deflater != null) {
+            ((DeflaterOutputStream) chunkOutput).finish();
+            deflater.end();
+            deflater = null;
+        }
+        chunkOutput = null;
+    }
+
+    private long position() throws IOException {
+        output.flush();
+        return fileOutput.getChannel().position();
+    }
+
+}
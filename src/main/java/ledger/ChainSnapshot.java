@@ -0,0 +1,329 @@
+package ledger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.google.protobuf.ByteString;
+
+import fabric4j.IBlockchain;
+import protos.Openchain.Block;
+import protos.Openchain.BlockchainInfo;
+
+/**
+ * The Class ChainSnapshot.
+ *
+ * The chain state a service last processed: the height, the current block
+ * hash and the most recent blocks. A snapshot saved on shutdown lets the
+ * service start again with a delta sync, fetching only the blocks above the
+ * snapshot height once the peer is checked to still hold the same chain.
+ *
+ * This class is not thread safe.
+ *
+ * @author Quentin Le Sceller
+ */
+public class ChainSnapshot {
+
+    /** The file format marker. */
+    private static final int MAGIC = 0x46344A43;
+
+    /** The default number of cached blocks. */
+    private static final int DEFAULT_MAX_CACHED_BLOCKS = 1024;
+
+    /** The height. */
+    private long height;
+
+    /** The current block hash. */
+    private ByteString currentBlockHash;
+
+    /** The number of the first cached block. */
+    private long firstCachedBlockNumber;
+
+    /** The cached blocks, the last one being the block at height - 1. */
+    private final List<Block> blocks;
+
+    /** The max number of cached blocks. */
+    private final int maxCachedBlocks;
+
+    /**
+     * Instantiates an empty chain snapshot.
+     */
+    public ChainSnapshot() {
+        this(DEFAULT_MAX_CACHED_BLOCKS);
+    }
+
+    /**
+     * Instantiates an empty chain snapshot.
+     *
+     * @param maxCachedBlocks
+     *            the max number of most recent blocks kept
+     */
+    public ChainSnapshot(int maxCachedBlocks) {
+        this.maxCachedBlocks = maxCachedBlocks;
+        this.currentBlockHash = ByteString.EMPTY;
+        this.blocks = new ArrayList<Block>();
+    }
+
+    /**
+     * Loads a snapshot from a file.
+     *
+     * @param file
+     *            the file
+     * @param maxCachedBlocks
+     *            the max number of most recent blocks kept
+     * @return the snapshot, empty if the file does not exist
+     * @throws IOException
+     *             Signals that the file could not be read.
+     */
+    public static ChainSnapshot load(File file, int maxCachedBlocks) throws IOException {
+        ChainSnapshot snapshot = new ChainSnapshot(maxCachedBlocks);
+        if (!file.exists()) {
+            return snapshot;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a chain snapshot: " + file);
+            }
+            snapshot.height = in.readLong();
+            byte[] hash = new byte[in.readInt()];
+            in.readFully(hash);
+            snapshot.currentBlockHash = ByteString.copyFrom(hash);
+            snapshot.firstCachedBlockNumber = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Block block = Block.parseDelimitedFrom(in);
+                if (block == null) {
+                    throw new IOException("Truncated chain snapshot: " + file);
+                }
+                snapshot.blocks.add(block);
+            }
+        } finally {
+            in.close();
+        }
+        snapshot.trim();
+        return snapshot;
+    }
+
+    /**
+     * Saves the snapshot to a file. The file is replaced atomically, so a
+     * crash while saving leaves the previous snapshot intact.
+     *
+     * @param file
+     *            the file
+     * @throws IOException
+     *             Signals that the file could not be written.
+     */
+    public void save(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(height);
+            out.writeInt(currentBlockHash.size());
+            currentBlockHash.writeTo(out);
+            out.writeLong(firstCachedBlockNumber);
+            out.writeInt(blocks.size());
+            for (Block block : blocks) {
+                block.writeDelimitedTo(out);
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Checks that a blockchain still holds the chain of the snapshot: either
+     * its current block hash is the snapshot's one, or the block above the
+     * snapshot links to it. The last cached block must also be
+     * unchanged, apart from its nonHashData.
+     *
+     * @param blockchain
+     *            the blockchain
+     * @param info
+     *            the blockchain info of the blockchain
+     * @return true, if the snapshot is a prefix of the chain
+     */
+    public boolean matches(IBlockchain blockchain, BlockchainInfo info) {
+        if (height == 0) {
+            return true;
+        }
+        if (info.getHeight() < height) {
+            return false;
+        }
+        if (!blocks.isEmpty()
+                && !hashedFields(blocks.get(blocks.size() - 1)).equals(hashedFields(blockchain.getBlock((int) (height - 1))))) {
+            return false;
+        }
+        if (info.getHeight() == height) {
+            return info.getCurrentBlockHash().equals(currentBlockHash);
+        }
+        return blockchain.getBlock((int) height).getPreviousBlockHash().equals(currentBlockHash);
+    }
+
+    /**
+     * Brings the snapshot up to date. If the blockchain still holds the chain
+     * of the snapshot, only the blocks above the snapshot height are fetched;
+     * otherwise the snapshot is cleared and the chain is synced from genesis.
+     * The fetched blocks are handed to the consumer one at a time, in chain
+     * order, and only the most recent ones are kept, so that syncing a long
+     * chain does not hold it in memory.
+     * <p/>
+     * The height advances with each block, so if a fetch or the consumer
+     * fails, the snapshot keeps the blocks synced so far and the next sync
+     * resumes from there. The last block handed to the consumer may then be
+     * handed again.
+     *
+     * @param blockchain
+     *            the blockchain
+     * @param consumer
+     *            the consumer of the fetched blocks
+     * @return the number of blocks fetched
+     */
+    public long sync(IBlockchain blockchain, Consumer<Block> consumer) {
+        BlockchainInfo info = blockchain.getBlockchainInfo();
+        if (!matches(blockchain, info)) {
+            clear();
+        }
+
+        long start = height;
+        try {
+            for (long blockNumber = start; blockNumber < info.getHeight(); blockNumber++) {
+                Block block = blockchain.getBlock((int) blockNumber);
+                if (blockNumber > height) {
+                    // The block links to its predecessor, which is now part
+                    // of the snapshot.
+                    height = blockNumber;
+                    currentBlockHash = block.getPreviousBlockHash();
+                }
+                consumer.accept(block);
+                if (blockNumber < info.getHeight() - maxCachedBlocks) {
+                    // The block would be trimmed by the end of the sync, and
+                    // so would every block cached before it.
+                    blocks.clear();
+                    continue;
+                }
+                if (blocks.isEmpty()) {
+                    firstCachedBlockNumber = blockNumber;
+                }
+                blocks.add(block);
+                trim();
+            }
+            height = info.getHeight();
+            currentBlockHash = info.getCurrentBlockHash();
+        } finally {
+            // After a failure, drops the blocks above the height, so that the
+            // snapshot stays consistent and the next sync resumes from there.
+            truncate();
+        }
+        return info.getHeight() - start;
+    }
+
+    /**
+     * Clears the snapshot.
+     */
+    public void clear() {
+        height = 0;
+        currentBlockHash = ByteString.EMPTY;
+        firstCachedBlockNumber = 0;
+        blocks.clear();
+    }
+
+    /**
+     * Gets the height.
+     *
+     * @return the height
+     */
+    public long getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the current block hash.
+     *
+     * @return the current block hash
+     */
+    public ByteString getCurrentBlockHash() {
+        return currentBlockHash;
+    }
+
+    /**
+     * Gets the number of the first cached block.
+     *
+     * @return the first cached block number
+     */
+    public long getFirstCachedBlockNumber() {
+        return firstCachedBlockNumber;
+    }
+
+    /**
+     * Gets the cached blocks, the last one being the block at height - 1.
+     *
+     * @return the cached blocks
+     */
+    public List<Block> getCachedBlocks() {
+        return Collections.unmodifiableList(blocks);
+    }
+
+    /**
+     * Gets a cached block.
+     *
+     * @param blockNumber
+     *            the block number
+     * @return the block, or null if it is not cached
+     */
+    public Block getCachedBlock(long blockNumber) {
+        long position = blockNumber - firstCachedBlockNumber;
+        if (position < 0 || position >= blocks.size()) {
+            return null;
+        }
+        return blocks.get((int) position);
+    }
+
+    /**
+     * Gets a block without its nonHashData, which may differ from peer to
+     * peer.
+     *
+     * @param block
+     *            the block
+     * @return the hashed fields of the block
+     */
+    private static Block hashedFields(Block block) {
+        return block.toBuilder().clearNonHashData().build();
+    }
+
+    /**
+     * Drops the cached blocks at or above the height.
+     */
+    private void truncate() {
+        long excess = firstCachedBlockNumber + blocks.size() - height;
+        if (excess > 0) {
+            blocks.subList(blocks.size() - (int) Math.min(excess, blocks.size()), blocks.size()).clear();
+        }
+    }
+
+    /**
+     * Drops the oldest blocks beyond the cache size.
+     */
+    private void trim() {
+        int excess = blocks.size() - maxCachedBlocks;
+        if (excess > 0) {
+            blocks.subList(0, excess).clear();
+            firstCachedBlockNumber += excess;
+        }
+    }
+
+}
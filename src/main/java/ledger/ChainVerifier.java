@@ -0,0 +1,268 @@
+package ledger;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntFunction;
+
+import com.google.protobuf.ByteString;
+
+import fabric4j.IBlockchain;
+import objects.exception.BlockchainException;
+import protos.Openchain.Block;
+
+/**
+ * The Class ChainVerifier.
+ *
+ * Checks that the previousBlockHash of each block matches the hash of its
+ * predecessor, computed locally over the hashed fields of the block (that is
+ * everything but nonHashData). The range is split across a ForkJoinPool and
+ * the first broken link is reported.
+ *
+ * The digest algorithm must be the one used by the peers. The JDK 8 baseline
+ * has no SHA3, which then needs a provider such as Bouncy Castle.
+ *
+ * @author Quentin Le Sceller
+ */
+public class ChainVerifier {
+
+    /** The number of links checked by one task before splitting stops. */
+    private static final int THRESHOLD = 64;
+
+    /** The digest algorithm. */
+    private final String algorithm;
+
+    /** The pool. */
+    private final ForkJoinPool pool;
+
+    /**
+     * Instantiates a new chain verifier running in the common pool.
+     *
+     * @param algorithm
+     *            the digest algorithm, for example SHA-256
+     * @throws NoSuchAlgorithmException
+     *             if the algorithm is not available
+     */
+    public ChainVerifier(String algorithm) throws NoSuchAlgorithmException {
+        this(algorithm, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Instantiates a new chain verifier.
+     *
+     * @param algorithm
+     *            the digest algorithm, for example SHA-256
+     * @param pool
+     *            the pool running the verification
+     * @throws NoSuchAlgorithmException
+     *             if the algorithm is not available
+     */
+    public ChainVerifier(String algorithm, ForkJoinPool pool) throws NoSuchAlgorithmException {
+        MessageDigest.getInstance(algorithm);
+        this.algorithm = algorithm;
+        this.pool = pool;
+    }
+
+    /**
+     * Verifies the links of the blocks in [from, to], fetching them from a
+     * blockchain. The link of block from to its predecessor is not checked.
+     * Each fetch is a managed block, so that the pool may start another thread
+     * while a worker waits for the peer.
+     *
+     * @param blockchain
+     *            the blockchain
+     * @param from
+     *            the first block number
+     * @param to
+     *            the last block number
+     * @return the number of the first block whose previousBlockHash does not
+     *         match, or -1 if the range is intact
+     */
+    public long verify(final IBlockchain blockchain, int from, int to) {
+        return verify(new IntFunction<Block>() {
+            @Override
+            public Block apply(int blockNumber) {
+                Fetch fetch = new Fetch(blockchain, blockNumber);
+                try {
+                    ForkJoinPool.managedBlock(fetch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new BlockchainException("Interrupted while fetching a block.", e);
+                }
+                return fetch.block;
+            }
+        }, from, to);
+    }
+
+    /**
+     * Verifies the links of blocks already fetched.
+     *
+     * @param blocks
+     *            the consecutive blocks
+     * @param firstBlockNumber
+     *            the number of the first block of the list
+     * @return the number of the first block whose previousBlockHash does not
+     *         match, or -1 if the blocks are intact
+     */
+    public long verify(final List<Block> blocks, final int firstBlockNumber) {
+        return verify(new IntFunction<Block>() {
+            @Override
+            public Block apply(int blockNumber) {
+                return blocks.get(blockNumber - firstBlockNumber);
+            }
+        }, firstBlockNumber, firstBlockNumber + blocks.size() - 1);
+    }
+
+    /**
+     * Verifies the links of the blocks in [from, to].
+     *
+     * @param source
+     *            the source of the blocks, by block number
+     * @param from
+     *            the first block number
+     * @param to
+     *            the last block number
+     * @return the number of the first block whose previousBlockHash does not
+     *         match, or -1 if the range is intact
+     */
+    public long verify(IntFunction<Block> source, int from, int to) {
+        if (to <= from) {
+            return -1;
+        }
+        return pool.invoke(new LinkTask(source, from + 1, to));
+    }
+
+    /**
+     * Computes the hash of a block over its hashed fields.
+     *
+     * @param block
+     *            the block
+     * @return the hash
+     */
+    public ByteString hash(Block block) {
+        try {
+            return hash(block, MessageDigest.getInstance(algorithm));
+        } catch (NoSuchAlgorithmException e) {
+            // Checked by the constructor.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Computes the hash of a block over its hashed fields.
+     *
+     * @param block
+     *            the block
+     * @param digest
+     *            the digest
+     * @return the hash
+     */
+    private static ByteString hash(Block block, MessageDigest digest) {
+        byte[] hashedFields = block.toBuilder().clearNonHashData().build().toByteArray();
+        return ByteString.copyFrom(digest.digest(hashedFields));
+    }
+
+    /**
+     * The Class Fetch.
+     *
+     * The fetch of a block, run as a ForkJoinPool managed block.
+     */
+    private static final class Fetch implements ForkJoinPool.ManagedBlocker {
+
+        /** The blockchain. */
+        private final IBlockchain blockchain;
+
+        /** The block number. */
+        private final int blockNumber;
+
+        /** The block, null until fetched. */
+        private Block block;
+
+        Fetch(IBlockchain blockchain, int blockNumber) {
+            this.blockchain = blockchain;
+            this.blockNumber = blockNumber;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.util.concurrent.ForkJoinPool.ManagedBlocker#block()
+         */
+        @Override
+        public boolean block() {
+            block = blockchain.getBlock(blockNumber);
+            return true;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.util.concurrent.ForkJoinPool.ManagedBlocker#isReleasable()
+         */
+        @Override
+        public boolean isReleasable() {
+            return block != null;
+        }
+    }
+
+    /**
+     * Checks the links of the blocks in [from, to] to their predecessors.
+     */
+    private class LinkTask extends RecursiveTask<Long> {
+
+        /** The serial version UID. */
+        private static final long serialVersionUID = 1L;
+
+        /** The source. */
+        private final IntFunction<Block> source;
+
+        /** The first block. */
+        private final int from;
+
+        /** The last block. */
+        private final int to;
+
+        LinkTask(IntFunction<Block> source, int from, int to) {
+            this.source = source;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from < THRESHOLD) {
+                return check();
+            }
+            int middle = (from + to) >>> 1;
+            LinkTask right = new LinkTask(source, middle + 1, to);
+            right.fork();
+            long left = new LinkTask(source, from, middle).compute();
+            if (left >= 0) {
+                right.cancel(false);
+                return left;
+            }
+            return right.join();
+        }
+
+        private long check() {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            Block previous = source.apply(from - 1);
+            for (int blockNumber = from; blockNumber <= to; blockNumber++) {
+                Block block = source.apply(blockNumber);
+                if (!block.getPreviousBlockHash().equals(hash(previous, digest))) {
+                    return blockNumber;
+                }
+                previous = block;
+            }
+            return -1;
+        }
+    }
+
+}
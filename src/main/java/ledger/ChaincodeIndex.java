@@ -0,0 +1,173 @@
+package ledger;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.protobuf.ByteString;
+
+import protos.Openchain.Block;
+import protos.Openchain.Transaction;
+
+/**
+ * The Class ChaincodeIndex.
+ *
+ * Maps each chaincode ID to the block numbers and transaction positions where
+ * it appears. The index is maintained incrementally: a Blockchain built with
+ * the index adds the blocks it fetches, and other callers add blocks with
+ * add. A block that was already indexed is ignored. The postings of a chaincode are
+ * kept in primitive arrays, in the order the blocks were added.
+ *
+ * All methods are synchronized.
+ *
+ * @author Quentin Le Sceller
+ */
+public class ChaincodeIndex {
+
+    /**
+     * The postings of one chaincode, as parallel primitive arrays.
+     */
+    private static final class Postings {
+
+        /** The block numbers. */
+        int[] blocks = new int[8];
+
+        /** The transaction positions in the blocks. */
+        int[] positions = new int[8];
+
+        /** The number of postings. */
+        int size;
+
+        /** The number of distinct blocks. */
+        int blockCount;
+
+        void add(int block, int position) {
+            if (size == blocks.length) {
+                blocks = Arrays.copyOf(blocks, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            if (size == 0 || blocks[size - 1] != block) {
+                blockCount++;
+            }
+            blocks[size] = block;
+            positions[size] = position;
+            size++;
+        }
+    }
+
+    /** The postings, by chaincode ID. */
+    private final Map<ByteString, Postings> postings = new HashMap<ByteString, Postings>();
+
+    /** The indexed blocks. */
+    private final BitSet indexedBlocks = new BitSet();
+
+    /**
+     * Adds the transactions of a block to the index.
+     *
+     * @param blockNumber
+     *            the block number
+     * @param block
+     *            the block
+     * @return true, if the block was not already indexed
+     */
+    public synchronized boolean add(int blockNumber, Block block) {
+        if (indexedBlocks.get(blockNumber)) {
+            return false;
+        }
+        indexedBlocks.set(blockNumber);
+        for (int position = 0; position < block.getTransactionsCount(); position++) {
+            Transaction transaction = block.getTransactions(position);
+            Postings chaincodePostings = postings.get(transaction.getChaincodeID());
+            if (chaincodePostings == null) {
+                chaincodePostings = new Postings();
+                postings.put(transaction.getChaincodeID(), chaincodePostings);
+            }
+            chaincodePostings.add(blockNumber, position);
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a block is indexed.
+     *
+     * @param blockNumber
+     *            the block number
+     * @return true, if the block is indexed
+     */
+    public synchronized boolean isIndexed(int blockNumber) {
+        return indexedBlocks.get(blockNumber);
+    }
+
+    /**
+     * Gets the number of transactions of a chaincode.
+     *
+     * @param chaincodeID
+     *            the chaincode ID
+     * @return the transaction count
+     */
+    public synchronized int getTransactionCount(ByteString chaincodeID) {
+        Postings chaincodePostings = postings.get(chaincodeID);
+        return chaincodePostings == null ? 0 : chaincodePostings.size;
+    }
+
+    /**
+     * Gets the distinct blocks holding transactions of a chaincode.
+     *
+     * @param chaincodeID
+     *            the chaincode ID
+     * @return the block numbers
+     */
+    public synchronized int[] getBlocks(ByteString chaincodeID) {
+        Postings chaincodePostings = postings.get(chaincodeID);
+        if (chaincodePostings == null) {
+            return new int[0];
+        }
+        int[] blocks = new int[chaincodePostings.blockCount];
+        int count = 0;
+        for (int i = 0; i < chaincodePostings.size; i++) {
+            if (i == 0 || chaincodePostings.blocks[i] != chaincodePostings.blocks[i - 1]) {
+                blocks[count++] = chaincodePostings.blocks[i];
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Gets the block of each transaction of a chaincode. The result is
+     * parallel to {@link #getTransactionPositions(ByteString)}.
+     *
+     * @param chaincodeID
+     *            the chaincode ID
+     * @return the block numbers, one per transaction
+     */
+    public synchronized int[] getTransactionBlocks(ByteString chaincodeID) {
+        Postings chaincodePostings = postings.get(chaincodeID);
+        return chaincodePostings == null ? new int[0]
+                : Arrays.copyOf(chaincodePostings.blocks, chaincodePostings.size);
+    }
+
+    /**
+     * Gets the position in its block of each transaction of a chaincode. The
+     * result is parallel to {@link #getTransactionBlocks(ByteString)}.
+     *
+     * @param chaincodeID
+     *            the chaincode ID
+     * @return the transaction positions
+     */
+    public synchronized int[] getTransactionPositions(ByteString chaincodeID) {
+        Postings chaincodePostings = postings.get(chaincodeID);
+        return chaincodePostings == null ? new int[0]
+                : Arrays.copyOf(chaincodePostings.positions, chaincodePostings.size);
+    }
+
+    /**
+     * Gets the number of distinct chaincode IDs.
+     *
+     * @return the chaincode count
+     */
+    public synchronized int getChaincodeCount() {
+        return postings.size();
+    }
+
+}
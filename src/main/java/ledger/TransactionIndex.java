@@ -0,0 +1,136 @@
+package ledger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import protos.Openchain.Block;
+import protos.Openchain.Transaction;
+import protos.Openchain.TransactionResult;
+
+/**
+ * The Class TransactionIndex.
+ *
+ * Keeps the transactions of fetched blocks by UUID, so that lookups of
+ * committed transactions, which never change, are answered locally. When the
+ * index is full the oldest transactions are dropped first.
+ * <p/>
+ * The index also keeps the results of the transactions, which the blocks
+ * carry in their nonHashData, so that the outcome of an invoke, its error
+ * code and error or its result, is known without querying the chaincode.
+ * A result is only known once the block of the transaction is added; a
+ * transaction added on its own has no result.
+ *
+ * All methods are synchronized.
+ *
+ * @author Quentin Le Sceller
+ */
+public class TransactionIndex {
+
+    /** The transactions, by UUID, oldest first. */
+    private final Map<String, Transaction> transactions;
+
+    /** The transaction results, by UUID, oldest first. */
+    private final Map<String, TransactionResult> results;
+
+    /**
+     * Instantiates a new transaction index holding up to a million
+     * transactions.
+     */
+    public TransactionIndex() {
+        this(1 << 20);
+    }
+
+    /**
+     * Instantiates a new transaction index.
+     *
+     * @param maxTransactions
+     *            the max number of transactions kept
+     */
+    public TransactionIndex(final int maxTransactions) {
+        if (maxTransactions < 1) {
+            throw new IllegalArgumentException("The max number of transactions must be positive.");
+        }
+        this.transactions = bounded(maxTransactions);
+        this.results = bounded(maxTransactions);
+    }
+
+    /**
+     * Creates a map dropping its oldest entries beyond a size.
+     *
+     * @param maxSize
+     *            the max size
+     * @return the map
+     */
+    private static <V> Map<String, V> bounded(final int maxSize) {
+        return new LinkedHashMap<String, V>() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Adds the transactions of a block and their results.
+     *
+     * @param block
+     *            the block
+     */
+    public synchronized void add(Block block) {
+        for (Transaction transaction : block.getTransactionsList()) {
+            add(transaction);
+        }
+        for (TransactionResult result : block.getNonHashData().getTransactionResultsList()) {
+            if (!result.getUuid().isEmpty()) {
+                results.put(result.getUuid(), result);
+            }
+        }
+    }
+
+    /**
+     * Adds a transaction.
+     *
+     * @param transaction
+     *            the transaction
+     */
+    public synchronized void add(Transaction transaction) {
+        if (!transaction.getUuid().isEmpty()) {
+            transactions.put(transaction.getUuid(), transaction);
+        }
+    }
+
+    /**
+     * Gets a transaction.
+     *
+     * @param uuid
+     *            the uuid
+     * @return the transaction, or null if it is not in the index
+     */
+    public synchronized Transaction get(String uuid) {
+        return transactions.get(uuid);
+    }
+
+    /**
+     * Gets the result of a transaction. An error code other than 0 means the
+     * transaction failed.
+     *
+     * @param uuid
+     *            the uuid
+     * @return the result, or null if it is not in the index
+     */
+    public synchronized TransactionResult getResult(String uuid) {
+        return results.get(uuid);
+    }
+
+    /**
+     * Gets the number of transactions in the index.
+     *
+     * @return the number of transactions
+     */
+    public synchronized int size() {
+        return transactions.size();
+    }
+}
@@ -0,0 +1,357 @@
+package ledger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Timestamp;
+
+import protos.Openchain.Block;
+import protos.Openchain.Transaction;
+
+/**
+ * The Class TransactionTable.
+ *
+ * Keeps the transactions of fetched blocks as primitive columns (type,
+ * timestamp in epoch nanos, dictionary encoded chaincode ID and block number)
+ * instead of Transaction objects, so that scans and aggregations run over
+ * plain arrays. Row i of every column describes the same transaction.
+ *
+ * This class is not thread safe.
+ *
+ * @author Quentin Le Sceller
+ */
+public class TransactionTable {
+
+    /** The default capacity. */
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    /** The nanos per second. */
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /** The type column. */
+    private byte[] types;
+
+    /** The timestamp column, in epoch nanos. */
+    private long[] timestamps;
+
+    /** The chaincode column, as dictionary codes. */
+    private int[] chaincodes;
+
+    /** The block number column. */
+    private long[] blockNumbers;
+
+    /** The number of rows. */
+    private int size;
+
+    /** The chaincode dictionary, by code. */
+    private final List<ByteString> chaincodeIDs;
+
+    /** The chaincode codes, by chaincode ID. */
+    private final Map<ByteString, Integer> chaincodeCodes;
+
+    /**
+     * Instantiates a new transaction table.
+     */
+    public TransactionTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Instantiates a new transaction table.
+     *
+     * @param capacity
+     *            the initial number of rows
+     */
+    public TransactionTable(int capacity) {
+        capacity = Math.max(capacity, 1);
+        types = new byte[capacity];
+        timestamps = new long[capacity];
+        chaincodes = new int[capacity];
+        blockNumbers = new long[capacity];
+        chaincodeIDs = new ArrayList<ByteString>();
+        chaincodeCodes = new HashMap<ByteString, Integer>();
+    }
+
+    /**
+     * Appends the transactions of a block. Transactions without a timestamp
+     * take the timestamp of the block.
+     *
+     * @param blockNumber
+     *            the block number
+     * @param block
+     *            the block
+     */
+    public void add(long blockNumber, Block block) {
+        ensureCapacity(size + block.getTransactionsCount());
+        long blockTimestamp = toNanos(block.getTimestamp());
+        for (Transaction transaction : block.getTransactionsList()) {
+            types[size] = (byte) transaction.getTypeValue();
+            timestamps[size] = transaction.hasTimestamp() ? toNanos(transaction.getTimestamp()) : blockTimestamp;
+            chaincodes[size] = encode(transaction.getChaincodeID());
+            blockNumbers[size] = blockNumber;
+            size++;
+        }
+    }
+
+    /**
+     * Gets the number of rows.
+     *
+     * @return the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the type of a row.
+     *
+     * @param row
+     *            the row
+     * @return the type
+     */
+    public Transaction.Type getType(int row) {
+        checkRow(row);
+        return Transaction.Type.valueOf(types[row]);
+    }
+
+    /**
+     * Gets the timestamp of a row.
+     *
+     * @param row
+     *            the row
+     * @return the timestamp, in epoch nanos
+     */
+    public long getTimestamp(int row) {
+        checkRow(row);
+        return timestamps[row];
+    }
+
+    /**
+     * Gets the chaincode code of a row.
+     *
+     * @param row
+     *            the row
+     * @return the chaincode code
+     */
+    public int getChaincode(int row) {
+        checkRow(row);
+        return chaincodes[row];
+    }
+
+    /**
+     * Gets the block number of a row.
+     *
+     * @param row
+     *            the row
+     * @return the block number
+     */
+    public long getBlockNumber(int row) {
+        checkRow(row);
+        return blockNumbers[row];
+    }
+
+    /**
+     * Gets the number of distinct chaincode IDs.
+     *
+     * @return the chaincode count
+     */
+    public int getChaincodeCount() {
+        return chaincodeIDs.size();
+    }
+
+    /**
+     * Gets the chaincode ID of a code.
+     *
+     * @param code
+     *            the chaincode code
+     * @return the chaincode ID
+     */
+    public ByteString getChaincodeID(int code) {
+        return chaincodeIDs.get(code);
+    }
+
+    /**
+     * Gets the code of a chaincode ID.
+     *
+     * @param chaincodeID
+     *            the chaincode ID
+     * @return the chaincode code, or -1 if the chaincode ID is not in the table
+     */
+    public int getChaincodeCode(ByteString chaincodeID) {
+        Integer code = chaincodeCodes.get(chaincodeID);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * Counts the rows whose timestamp is in [from, to).
+     *
+     * @param from
+     *            the first timestamp, in epoch nanos
+     * @param to
+     *            the end timestamp, in epoch nanos
+     * @return the count
+     */
+    public int countBetween(long from, long to) {
+        long[] timestamps = this.timestamps;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            long timestamp = timestamps[i];
+            count += (timestamp >= from & timestamp < to) ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * Counts the rows of a type.
+     *
+     * @param type
+     *            the type
+     * @return the count
+     */
+    public int countByType(Transaction.Type type) {
+        byte value = (byte) type.getNumber();
+        byte[] types = this.types;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            count += types[i] == value ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * Counts the rows of each chaincode.
+     *
+     * @return the counts, indexed by chaincode code
+     */
+    public int[] countByChaincode() {
+        int[] counts = new int[chaincodeIDs.size()];
+        int[] chaincodes = this.chaincodes;
+        for (int i = 0; i < size; i++) {
+            counts[chaincodes[i]]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Counts the rows of each chaincode in consecutive time buckets, for
+     * example per hour with a bucket of 3600 seconds. Rows outside of the
+     * buckets are ignored.
+     *
+     * @param start
+     *            the start of the first bucket, in epoch nanos
+     * @param bucket
+     *            the bucket length, in nanos
+     * @param bucketCount
+     *            the number of buckets
+     * @return the counts, indexed by chaincode code then by bucket
+     */
+    public int[][] countByChaincodeAndBucket(long start, long bucket, int bucketCount) {
+        if (bucket <= 0) {
+            throw new IllegalArgumentException("Bucket must be positive.");
+        }
+        int[][] counts = new int[chaincodeIDs.size()][bucketCount];
+        long[] timestamps = this.timestamps;
+        int[] chaincodes = this.chaincodes;
+        for (int i = 0; i < size; i++) {
+            long offset = timestamps[i] - start;
+            if (offset >= 0) {
+                long index = offset / bucket;
+                if (index < bucketCount) {
+                    counts[chaincodes[i]][(int) index]++;
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Gets the smallest timestamp.
+     *
+     * @return the smallest timestamp in epoch nanos, or Long.MAX_VALUE if the
+     *         table is empty
+     */
+    public long minTimestamp() {
+        long[] timestamps = this.timestamps;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            min = Math.min(min, timestamps[i]);
+        }
+        return min;
+    }
+
+    /**
+     * Gets the largest timestamp.
+     *
+     * @return the largest timestamp in epoch nanos, or Long.MIN_VALUE if the
+     *         table is empty
+     */
+    public long maxTimestamp() {
+        long[] timestamps = this.timestamps;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, timestamps[i]);
+        }
+        return max;
+    }
+
+    /**
+     * Converts a timestamp to epoch nanos.
+     *
+     * @param timestamp
+     *            the timestamp
+     * @return the epoch nanos
+     */
+    static long toNanos(Timestamp timestamp) {
+        return timestamp.getSeconds() * NANOS_PER_SECOND + timestamp.getNanos();
+    }
+
+    /**
+     * Encodes a chaincode ID, adding it to the dictionary if needed.
+     *
+     * @param chaincodeID
+     *            the chaincode ID
+     * @return the chaincode code
+     */
+    private int encode(ByteString chaincodeID) {
+        Integer code = chaincodeCodes.get(chaincodeID);
+        if (code == null) {
+            code = chaincodeIDs.size();
+            chaincodeIDs.add(chaincodeID);
+            chaincodeCodes.put(chaincodeID, code);
+        }
+        return code;
+    }
+
+    /**
+     * Ensures the columns can hold a number of rows.
+     *
+     * @param capacity
+     *            the number of rows
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > types.length) {
+            int newCapacity = Math.max(capacity, types.length * 2);
+            types = Arrays.copyOf(types, newCapacity);
+            timestamps = Arrays.copyOf(timestamps, newCapacity);
+            chaincodes = Arrays.copyOf(chaincodes, newCapacity);
+            blockNumbers = Arrays.copyOf(blockNumbers, newCapacity);
+        }
+    }
+
+    /**
+     * Checks a row index.
+     *
+     * @param row
+     *            the row
+     */
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of " + size);
+        }
+    }
+
+}
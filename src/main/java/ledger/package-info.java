@@ -0,0 +1,5 @@
+/**
+ * Contains the local structures built from fetched blocks.
+ */
+package ledger;
+
@@ -0,0 +1,45 @@
+package objects.exception;
+
+/**
+ * The BlockchainException is thrown by the Blockchain clients when a request
+ * to a peer fails. It is unchecked, so that the IBlockchain methods keep their
+ * signatures.
+ *
+ * @author Quentin Le Sceller
+ */
+public class BlockchainException extends RuntimeException {
+
+    private static final long serialVersionUID = 3915467239163880542L;
+
+    /**
+     * Constructs a BlockchainException with an explanatory message.
+     *
+     * @param message
+     *            Detail about the reason for the exception.
+     */
+    public BlockchainException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructs a BlockchainException with an explanatory message and a
+     * cause.
+     *
+     * @param message
+     *            Detail about the reason for the exception.
+     * @param cause
+     *            The cause.
+     */
+    public BlockchainException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    /**
+     * Tells whether the same request may succeed if sent again.
+     *
+     * @return true if the failure is transient
+     */
+    public boolean isRetryable() {
+        return false;
+    }
+}
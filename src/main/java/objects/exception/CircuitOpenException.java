@@ -0,0 +1,22 @@
+package objects.exception;
+
+/**
+ * The CircuitOpenException is thrown without contacting a peer when its
+ * circuit breaker is open, after too many failures in a row.
+ *
+ * @author Quentin Le Sceller
+ */
+public class CircuitOpenException extends BlockchainException {
+
+    private static final long serialVersionUID = 8146306547150278316L;
+
+    /**
+     * Constructs a CircuitOpenException with an explanatory message.
+     *
+     * @param message
+     *            Detail about the reason for the exception.
+     */
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,61 @@
+package objects.exception;
+
+/**
+ * The PeerIOException is thrown when a peer cannot be reached, does not
+ * answer in time or answers with an HTTP error status.
+ *
+ * @author Quentin Le Sceller
+ */
+public class PeerIOException extends BlockchainException {
+
+    private static final long serialVersionUID = -2236245950432180398L;
+
+    /** The HTTP status code, -1 if the peer did not answer. */
+    private final int statusCode;
+
+    /**
+     * Constructs a PeerIOException for a peer that did not answer.
+     *
+     * @param message
+     *            Detail about the reason for the exception.
+     * @param cause
+     *            The I/O failure.
+     */
+    public PeerIOException(String message, Throwable cause) {
+        super(message, cause);
+        this.statusCode = -1;
+    }
+
+    /**
+     * Constructs a PeerIOException for an HTTP error status.
+     *
+     * @param message
+     *            Detail about the reason for the exception.
+     * @param statusCode
+     *            The HTTP status code.
+     */
+    public PeerIOException(String message, int statusCode) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * Gets the HTTP status code.
+     *
+     * @return the status code, or -1 if the peer did not answer
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Tells whether the request may succeed if sent again: true when the peer
+     * did not answer, was overloaded (429) or failed (5xx).
+     *
+     * @return true if the failure is transient
+     */
+    @Override
+    public boolean isRetryable() {
+        return statusCode < 0 || statusCode == 429 || statusCode >= 500;
+    }
+}
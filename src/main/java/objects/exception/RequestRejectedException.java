@@ -0,0 +1,23 @@
+package objects.exception;
+
+/**
+ * The RequestRejectedException is thrown without contacting a peer when the
+ * queue of the class of a request is full. It is not retryable, so that a
+ * retry does not add to the load being shed.
+ *
+ * @author Quentin Le Sceller
+ */
+public class RequestRejectedException extends BlockchainException {
+
+    private static final long serialVersionUID = -6003410213687052386L;
+
+    /**
+     * Constructs a RequestRejectedException with an explanatory message.
+     *
+     * @param message
+     *            Detail about the reason for the exception.
+     */
+    public RequestRejectedException(String message) {
+        super(message);
+    }
+}
@@ -25,6 +25,9 @@ SOFTWARE.
 
 import java.io.IOException;
 import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.*;
@@ -140,6 +143,24 @@ public class JSONObject {
     public static final Object NULL = new Null();
 
 
+    /**
+     * The type every cached bean getter is adapted to.
+     */
+    private static final MethodType GETTER_TYPE =
+            MethodType.methodType(Object.class, Object.class);
+
+
+    /**
+     * The bean getters of each class passed to the bean constructor.
+     */
+    private static final ClassValue<BeanInfo> BEAN_INFO = new ClassValue<BeanInfo>() {
+        @Override
+        protected BeanInfo computeValue(Class<?> type) {
+            return new BeanInfo(type);
+        }
+    };
+
+
     /**
      * Construct an empty JSONObject.
      */
@@ -260,6 +281,9 @@ public class JSONObject {
      * For example, if an object has a method named {@code}"getName"{/code}, and
      * if the result of calling {@code}object.getName(){/code} is {@code}"Larry Fine"{/code},
      * then the JSONObject will contain {@code}"name": "Larry Fine"{/code}.
+     * <p/>
+     * The getters of a class are looked up once and cached, so converting
+     * many beans of the same class does not reflect over it again.
      *
      * @param bean An object that has getter methods that should be used
      *             to make a JSONObject.
@@ -609,47 +633,89 @@ public class JSONObject {
 
 
     private void populateMap(Object bean) {
-        Class klass = bean.getClass();
+        BeanInfo info = BEAN_INFO.get(bean.getClass());
+        for (int i = 0; i < info.keys.length; i++) {
+            try {
+                Object result = (Object) info.getters[i].invokeExact(bean);
+                if (result != null) {
+                    map.put(info.keys[i], wrap(result));
+                }
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable ignore) {
+                // invokeExact declares Throwable; as before, a getter
+                // throwing an exception leaves its property out.
+            }
+        }
+    }
+
+
+    /**
+     * The bean getters of a class, computed once per class by
+     * {@code}BEAN_INFO{/code} so that repeated bean conversions do not
+     * reflect over the methods again.
+     */
+    private static final class BeanInfo {
+
+        /**
+         * The property names, in the same order as the getters.
+         */
+        final String[] keys;
+
+        /**
+         * The getters, adapted to the {@code}(Object)Object{/code} type.
+         */
+        final MethodHandle[] getters;
+
+        BeanInfo(Class klass) {
+            List<String> keyList = new ArrayList<String>();
+            List<MethodHandle> getterList = new ArrayList<MethodHandle>();
 
 // If klass is a System class then set includeSuperClass to false. 
 
-        boolean includeSuperClass = klass.getClassLoader() != null;
+            boolean includeSuperClass = klass.getClassLoader() != null;
 
-        Method[] methods = (includeSuperClass) ?
-                klass.getMethods() : klass.getDeclaredMethods();
-        for (Method method1 : methods) {
-            try {
-                if (Modifier.isPublic(method1.getModifiers())) {
-                    String name = method1.getName();
-                    String key = "";
-                    if (name.startsWith("get")) {
-                        if (name.equals("getClass") ||
-                                name.equals("getDeclaringClass")) {
-                            key = "";
-                        } else {
-                            key = name.substring(3);
-                        }
-                    } else if (name.startsWith("is")) {
-                        key = name.substring(2);
-                    }
-                    if (key.length() > 0 &&
-                            Character.isUpperCase(key.charAt(0)) &&
-                            method1.getParameterTypes().length == 0) {
-                        if (key.length() == 1) {
-                            key = key.toLowerCase();
-                        } else if (!Character.isUpperCase(key.charAt(1))) {
-                            key = key.substring(0, 1).toLowerCase() +
-                                    key.substring(1);
+            Method[] methods = (includeSuperClass) ?
+                    klass.getMethods() : klass.getDeclaredMethods();
+            for (Method method1 : methods) {
+                try {
+                    if (Modifier.isPublic(method1.getModifiers())) {
+                        String name = method1.getName();
+                        String key = "";
+                        if (name.startsWith("get")) {
+                            if (name.equals("getClass") ||
+                                    name.equals("getDeclaringClass")) {
+                                key = "";
+                            } else {
+                                key = name.substring(3);
+                            }
+                        } else if (name.startsWith("is")) {
+                            key = name.substring(2);
                         }
-
-                        Object result = method1.invoke(bean, (Object[]) null);
-                        if (result != null) {
-                            map.put(key, wrap(result));
+                        if (key.length() > 0 &&
+                                Character.isUpperCase(key.charAt(0)) &&
+                                method1.getParameterTypes().length == 0) {
+                            if (key.length() == 1) {
+                                key = key.toLowerCase();
+                            } else if (!Character.isUpperCase(key.charAt(1))) {
+                                key = key.substring(0, 1).toLowerCase() +
+                                        key.substring(1);
+                            }
+
+                            MethodHandle getter = MethodHandles.publicLookup().unreflect(method1);
+                            if (Modifier.isStatic(method1.getModifiers())) {
+                                getter = MethodHandles.dropArguments(getter, 0, Object.class);
+                            }
+                            getter = getter.asType(GETTER_TYPE);
+                            keyList.add(key);
+                            getterList.add(getter);
                         }
                     }
+                } catch (Exception ignore) {
                 }
-            } catch (Exception ignore) {
             }
+            this.keys = keyList.toArray(new String[keyList.size()]);
+            this.getters = getterList.toArray(new MethodHandle[getterList.size()]);
         }
     }
 
@@ -0,0 +1,24 @@
+package objects.json;
+
+/**
+ * A JSONPathListener receives the values selected by a JSONPathScanner.
+ *
+ * @author Quentin Le Sceller
+ */
+public interface JSONPathListener {
+
+    /**
+     * Called for each value found at a registered path.
+     *
+     * @param path
+     *            the registered path, for example {@code transactions[*].uuid}
+     * @param index
+     *            the index of the nearest enclosing array element, or -1 if
+     *            the value is not inside an array
+     * @param value
+     *            the value: a Boolean, Number, String, JSONArray, JSONObject
+     *            or the JSONObject.NULL object
+     */
+    void value(String path, int index, Object value);
+
+}
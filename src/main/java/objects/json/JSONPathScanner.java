@@ -0,0 +1,437 @@
+package objects.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import objects.exception.JSONException;
+
+/**
+ * A JSONPathScanner reads a JSON text once and reports only the values found
+ * at the registered paths. A path is a dot separated list of keys, where
+ * {@code [*]} selects every element of an array, for example
+ * {@code transactions[*].uuid} or {@code transactions[*].timestamp.seconds}.
+ * <p/>
+ * Everything that is not on a registered path is skipped without building
+ * strings or JSON objects. A value found at a registered path is delivered
+ * whole, as a JSONObject or JSONArray if it is a container, and the paths
+ * below it are not reported separately.
+ * <p/>
+ * A scanner can be reused for many texts but is not thread safe.
+ *
+ * @author Quentin Le Sceller
+ */
+public class JSONPathScanner {
+
+    /**
+     * A node of the path tree.
+     */
+    private static final class Node {
+
+        /**
+         * The key of this node in its parent object, null for array elements
+         * and for the root.
+         */
+        final char[] name;
+
+        /**
+         * The children selected by object keys.
+         */
+        Node[] children = new Node[0];
+
+        /**
+         * The child selected by every array element.
+         */
+        Node element;
+
+        /**
+         * The registered path ending at this node, null if none.
+         */
+        String path;
+
+        /**
+         * The listener of the registered path.
+         */
+        JSONPathListener listener;
+
+        Node(char[] name) {
+            this.name = name;
+        }
+
+        Node child(char[] key, int length) {
+            for (Node child : children) {
+                if (child.name.length == length && regionEquals(child.name, key, length)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        Node addChild(String key) {
+            Node child = child(key.toCharArray(), key.length());
+            if (child == null) {
+                child = new Node(key.toCharArray());
+                children = Arrays.copyOf(children, children.length + 1);
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+
+        Node addElement() {
+            if (element == null) {
+                element = new Node(null);
+            }
+            return element;
+        }
+
+        private static boolean regionEquals(char[] a, char[] b, int length) {
+            for (int i = 0; i < length; i++) {
+                if (a[i] != b[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The root of the path tree.
+     */
+    private final Node root = new Node(null);
+
+    /**
+     * The character buffer.
+     */
+    private final char[] buffer = new char[8192];
+
+    /**
+     * The buffer holding the key being read.
+     */
+    private char[] key = new char[64];
+
+    /**
+     * The reader being scanned.
+     */
+    private Reader reader;
+
+    /**
+     * The position of the next character in the buffer.
+     */
+    private int position;
+
+    /**
+     * The number of characters in the buffer.
+     */
+    private int limit;
+
+    /**
+     * The text of the value being captured, null when skipping.
+     */
+    private StringBuilder capture;
+
+    /**
+     * Whether the current scan was stopped by a listener.
+     */
+    private boolean stopped;
+
+    /**
+     * Register a listener for a path.
+     *
+     * @param path     A path such as {@code transactions[*].uuid}.
+     * @param listener The listener called for each value at the path.
+     * @return this.
+     * @throws IllegalArgumentException If the path is malformed.
+     */
+    public JSONPathScanner on(String path, JSONPathListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Null listener.");
+        }
+        Node node = root;
+        for (String segment : path.split("\\.", -1)) {
+            int bracket = segment.indexOf('[');
+            String name = bracket < 0 ? segment : segment.substring(0, bracket);
+            if (name.length() > 0) {
+                node = node.addChild(name);
+            } else if (bracket < 0 || node != root && bracket != 0) {
+                throw new IllegalArgumentException("Empty segment in path " + path);
+            }
+            String rest = bracket < 0 ? "" : segment.substring(bracket);
+            while (rest.startsWith("[*]")) {
+                node = node.addElement();
+                rest = rest.substring(3);
+            }
+            if (rest.length() > 0) {
+                throw new IllegalArgumentException("Only [*] is supported in path " + path);
+            }
+        }
+        node.path = path;
+        node.listener = listener;
+        return this;
+    }
+
+    /**
+     * Stop the current scan. Meant to be called from a listener once it has
+     * found what it was looking for; the rest of the text is not read.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Scan a JSON text.
+     *
+     * @param source A JSON text.
+     * @throws JSONException If there is a syntax error.
+     */
+    public void scan(String source) throws JSONException {
+        scan(new StringReader(source));
+    }
+
+    /**
+     * Scan a JSON text from a UTF-8 stream.
+     *
+     * @param inputStream The stream.
+     * @throws JSONException If there is a syntax error or the stream fails.
+     */
+    public void scan(InputStream inputStream) throws JSONException {
+        scan(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Scan a JSON text from a reader.
+     *
+     * @param reader The reader.
+     * @throws JSONException If there is a syntax error or the reader fails.
+     */
+    public void scan(Reader reader) throws JSONException {
+        this.reader = reader;
+        this.position = 0;
+        this.limit = 0;
+        this.capture = null;
+        this.stopped = false;
+        try {
+            value(root, nextClean(), -1);
+        } finally {
+            this.reader = null;
+        }
+    }
+
+    private void value(Node node, int c, int index) throws JSONException {
+        if (node == null) {
+            skip(c);
+        } else if (node.listener != null) {
+            capture = new StringBuilder();
+            capture.append((char) c);
+            skip(c);
+            Object value = new JSONTokener(capture.toString()).nextValue();
+            capture = null;
+            node.listener.value(node.path, index, value);
+        } else if (c == '{') {
+            object(node, index);
+        } else if (c == '[') {
+            array(node);
+        } else {
+            skip(c);
+        }
+    }
+
+    private void object(Node node, int index) throws JSONException {
+        int c = nextClean();
+        if (c == '}') {
+            return;
+        }
+        for (;;) {
+            if (c != '"') {
+                throw syntaxError("Expected a key");
+            }
+            int length = readKey();
+            if (nextClean() != ':') {
+                throw syntaxError("Expected a ':' after a key");
+            }
+            value(node.child(key, length), nextClean(), index);
+            if (stopped) {
+                return;
+            }
+            c = nextClean();
+            if (c == '}') {
+                return;
+            }
+            if (c != ',') {
+                throw syntaxError("Expected a ',' or '}'");
+            }
+            c = nextClean();
+        }
+    }
+
+    private void array(Node node) throws JSONException {
+        int c = nextClean();
+        if (c == ']') {
+            return;
+        }
+        for (int index = 0;; index++) {
+            value(node.element, c, index);
+            if (stopped) {
+                return;
+            }
+            c = nextClean();
+            if (c == ']') {
+                return;
+            }
+            if (c != ',') {
+                throw syntaxError("Expected a ',' or ']'");
+            }
+            c = nextClean();
+        }
+    }
+
+    private void skip(int c) throws JSONException {
+        switch (c) {
+        case '"':
+            skipString();
+            return;
+        case '{':
+        case '[':
+            int depth = 1;
+            while (depth > 0) {
+                c = next();
+                if (c == '"') {
+                    skipString();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                } else if (c < 0) {
+                    throw syntaxError("Unterminated container");
+                }
+            }
+            return;
+        default:
+            if (c < 0 || ",:]}".indexOf(c) >= 0) {
+                throw syntaxError("Missing value");
+            }
+            for (;;) {
+                c = next();
+                if (c < 0) {
+                    return;
+                }
+                if (c <= ' ' || c == ',' || c == ']' || c == '}') {
+                    back();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void skipString() throws JSONException {
+        for (;;) {
+            int c = next();
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                c = next();
+            }
+            if (c < 0) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    private int readKey() throws JSONException {
+        int length = 0;
+        for (;;) {
+            int c = next();
+            if (c == '"') {
+                return length;
+            }
+            if (c < 0) {
+                throw syntaxError("Unterminated string");
+            }
+            if (c == '\\') {
+                c = next();
+                switch (c) {
+                case 'b':
+                    c = '\b';
+                    break;
+                case 't':
+                    c = '\t';
+                    break;
+                case 'n':
+                    c = '\n';
+                    break;
+                case 'f':
+                    c = '\f';
+                    break;
+                case 'r':
+                    c = '\r';
+                    break;
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(next(), 16);
+                        if (digit < 0) {
+                            throw syntaxError("Illegal escape.");
+                        }
+                        code = (code << 4) + digit;
+                    }
+                    c = code;
+                    break;
+                case '"':
+                case '\\':
+                case '/':
+                    break;
+                default:
+                    throw syntaxError("Illegal escape.");
+                }
+            }
+            if (length == key.length) {
+                key = Arrays.copyOf(key, length * 2);
+            }
+            key[length++] = (char) c;
+        }
+    }
+
+    private int nextClean() throws JSONException {
+        for (;;) {
+            int c = next();
+            if (c < 0 || c > ' ') {
+                return c;
+            }
+        }
+    }
+
+    private int next() throws JSONException {
+        if (position == limit) {
+            try {
+                limit = reader.read(buffer, 0, buffer.length);
+            } catch (IOException exception) {
+                throw new JSONException(exception);
+            }
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        char c = buffer[position++];
+        if (capture != null) {
+            capture.append(c);
+        }
+        return c;
+    }
+
+    private void back() {
+        position -= 1;
+        if (capture != null) {
+            capture.setLength(capture.length() - 1);
+        }
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " in JSON path scan");
+    }
+}
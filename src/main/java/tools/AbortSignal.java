@@ -0,0 +1,116 @@
+package tools;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.function.Supplier;
+
+/**
+ * The Class AbortSignal.
+ *
+ * Lets a thread abort the requests that another thread makes through
+ * URLTools. Interrupting a thread does not stop an HttpURLConnection blocked
+ * on a read, so aborting closes the connection of the request in flight; the
+ * request then fails with a BlockchainException that is not retryable, and
+ * so do the requests the call makes afterwards.
+ * <p/>
+ * A signal is thread safe.
+ *
+ * @author Quentin Le Sceller
+ */
+public class AbortSignal {
+
+    /** The signal of the call running on the current thread, if any. */
+    private static final ThreadLocal<AbortSignal> CURRENT = new ThreadLocal<AbortSignal>();
+
+    /** The connection of the request in flight, null between requests. */
+    private HttpURLConnection connection;
+
+    /** Whether the signal is aborted. */
+    private boolean aborted;
+
+    /**
+     * Runs a call on the current thread, its requests being aborted by the
+     * signal.
+     *
+     * @param call
+     *            the call
+     * @return the result of the call
+     */
+    public <T> T run(Supplier<T> call) {
+        AbortSignal previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return call.get();
+        } finally {
+            CURRENT.set(previous);
+            synchronized (this) {
+                connection = null;
+            }
+        }
+    }
+
+    /**
+     * Aborts the request in flight and the later requests of the call.
+     */
+    public synchronized void abort() {
+        aborted = true;
+        if (connection != null) {
+            connection.disconnect();
+            connection = null;
+        }
+    }
+
+    /**
+     * Tells whether the signal is aborted.
+     *
+     * @return true if aborted
+     */
+    public synchronized boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Attaches a connected connection to the signal of the current thread.
+     *
+     * @param connection
+     *            the connection
+     * @throws IOException
+     *             if the signal is already aborted, the connection being
+     *             closed
+     */
+    static void attach(HttpURLConnection connection) throws IOException {
+        AbortSignal signal = CURRENT.get();
+        if (signal != null) {
+            synchronized (signal) {
+                if (signal.aborted) {
+                    connection.disconnect();
+                    throw new IOException("Request aborted.");
+                }
+                signal.connection = connection;
+            }
+        }
+    }
+
+    /**
+     * Detaches the connection of the current thread from its signal, once the
+     * response is read.
+     */
+    static void detach() {
+        AbortSignal signal = CURRENT.get();
+        if (signal != null) {
+            synchronized (signal) {
+                signal.connection = null;
+            }
+        }
+    }
+
+    /**
+     * Tells whether the signal of the current thread is aborted.
+     *
+     * @return true if the current call is aborted
+     */
+    static boolean isCurrentAborted() {
+        AbortSignal signal = CURRENT.get();
+        return signal != null && signal.isAborted();
+    }
+}
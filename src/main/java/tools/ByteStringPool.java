@@ -0,0 +1,79 @@
+package tools;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * The Class ByteStringPool.
+ *
+ * A content-addressed intern pool for byte strings, used to share one copy of
+ * values repeated across many transactions, such as the enrollment
+ * certificate of a submitter. Entries are weakly referenced and disappear
+ * once no message uses them anymore. The pool is split in stripes by hash so
+ * that concurrent decoders rarely contend.
+ *
+ * @author Quentin Le Sceller
+ */
+public class ByteStringPool {
+
+    /** The number of stripes, a power of two. */
+    private static final int STRIPES = 16;
+
+    /** The stripes. */
+    private final Map<ByteString, WeakReference<ByteString>>[] stripes;
+
+    /**
+     * Instantiates a new byte string pool.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public ByteStringPool() {
+        stripes = new Map[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new WeakHashMap<ByteString, WeakReference<ByteString>>();
+        }
+    }
+
+    /**
+     * Returns the pooled byte string with the same content, adding this one
+     * to the pool if there is none.
+     *
+     * @param bytes
+     *            the bytes
+     * @return the pooled bytes
+     */
+    public ByteString intern(ByteString bytes) {
+        if (bytes.isEmpty()) {
+            return ByteString.EMPTY;
+        }
+        int hash = bytes.hashCode();
+        Map<ByteString, WeakReference<ByteString>> stripe = stripes[(hash ^ hash >>> 16) & (STRIPES - 1)];
+        synchronized (stripe) {
+            WeakReference<ByteString> reference = stripe.get(bytes);
+            ByteString pooled = reference == null ? null : reference.get();
+            if (pooled == null) {
+                stripe.put(bytes, new WeakReference<ByteString>(bytes));
+                pooled = bytes;
+            }
+            return pooled;
+        }
+    }
+
+    /**
+     * Gets the number of pooled byte strings.
+     *
+     * @return the size
+     */
+    public int size() {
+        int size = 0;
+        for (Map<ByteString, WeakReference<ByteString>> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+}
@@ -0,0 +1,124 @@
+package tools;
+
+/**
+ * The Class CircuitBreaker.
+ * 
+ * Guards the requests to one peer. The breaker is closed while the peer
+ * answers. After a number of failures in a row it opens, and requests fail
+ * at once without reaching the peer. Once the open period is over it is half
+ * open: a single trial request goes through, and closes the breaker if it
+ * succeeds or opens it again if it fails.
+ * <p/>
+ * A CircuitBreaker is thread safe.
+ * 
+ * @author Quentin Le Sceller
+ */
+public class CircuitBreaker {
+
+    /**
+     * The state of a breaker.
+     */
+    public enum State {
+        /** Requests go through. */
+        CLOSED,
+        /** Requests fail at once. */
+        OPEN,
+        /** A single trial request goes through. */
+        HALF_OPEN
+    }
+
+    /** The number of failures in a row that opens the breaker. */
+    private final int failureThreshold;
+
+    /** The open period, in nanoseconds. */
+    private final long openNanos;
+
+    /** The state. */
+    private State state = State.CLOSED;
+
+    /** The number of failures in a row. */
+    private int failures;
+
+    /** The time the breaker opened, from System.nanoTime. */
+    private long openedAt;
+
+    /** Whether the trial request of the half open state is in flight. */
+    private boolean trialInFlight;
+
+    /**
+     * Instantiates a new circuit breaker.
+     *
+     * @param failureThreshold
+     *            the number of failures in a row that opens the breaker
+     * @param openMillis
+     *            the time the breaker stays open, in milliseconds
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("The failure threshold must be positive.");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openMillis * 1000000L;
+    }
+
+    /**
+     * Asks for a request to go through. Every allowed request must be
+     * followed by a call to onSuccess, onFailure or onIgnored.
+     *
+     * @return true if the request may be sent
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialInFlight) {
+                return false;
+            }
+            trialInFlight = true;
+            return true;
+        }
+        return state == State.CLOSED;
+    }
+
+    /**
+     * Records that a request succeeded.
+     */
+    public synchronized void onSuccess() {
+        failures = 0;
+        trialInFlight = false;
+        state = State.CLOSED;
+    }
+
+    /**
+     * Records that a request failed.
+     */
+    public synchronized void onFailure() {
+        trialInFlight = false;
+        if (state == State.HALF_OPEN || ++failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * Records that a request ended in a way that tells nothing of the peer,
+     * such as a failure in the caller's code. A half open breaker lets the
+     * next request be the trial.
+     */
+    public synchronized void onIgnored() {
+        trialInFlight = false;
+    }
+
+    /**
+     * Gets the state.
+     *
+     * @return the state
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+}
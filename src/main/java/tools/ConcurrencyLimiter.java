@@ -0,0 +1,166 @@
+package tools;
+
+/**
+ * The Class ConcurrencyLimiter.
+ *
+ * Bounds the requests in flight with a limit that adapts to the peer, by
+ * additive increase and multiplicative decrease (AIMD). While the latency of
+ * the requests stays near its baseline and the limit is in use, the limit
+ * grows by one per limit's worth of requests. When the latency exceeds the
+ * baseline by the tolerance, or a request fails with an overload, the limit
+ * is multiplied by the backoff ratio. Other failures, such as a client error,
+ * leave the limit and the baseline alone: they return quickly, and their
+ * latency says nothing about the load of the peer. The baseline is the
+ * lowest latency of a successful request; if the peer becomes slower for
+ * good, the limit falls to its min, where the latencies measured are those
+ * of an idle peer, and the baseline follows them.
+ * <p/>
+ * Callers wait for a permit while the limit is reached, so that a batch
+ * loader slows down to what the peer can take instead of overloading it.
+ * <p/>
+ * A ConcurrencyLimiter is thread safe.
+ *
+ * @author Quentin Le Sceller
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * The outcome of a request, as far as the limit is concerned.
+     */
+    public enum Outcome {
+
+        /** The request succeeded; its latency is a sample. */
+        SUCCESS,
+
+        /** The request failed in a way showing the peer is overloaded. */
+        OVERLOAD,
+
+        /** The request failed in a way that says nothing of the load. */
+        IGNORE
+    }
+
+    /** The factor applied to the limit on overload. */
+    private static final double BACKOFF_RATIO = 0.9;
+
+    /** The weight of a sample taken at the min limit in the baseline. */
+    private static final double BASELINE_DRIFT = 0.1;
+
+    /** The min limit. */
+    private final int minLimit;
+
+    /** The max limit. */
+    private final int maxLimit;
+
+    /** The latency over the baseline, as a ratio, that counts as overload. */
+    private final double tolerance;
+
+    /** The limit. */
+    private double limit;
+
+    /** The number of requests in flight. */
+    private int inFlight;
+
+    /** The baseline latency, in nanoseconds, 0 before any sample. */
+    private double baseline;
+
+    /**
+     * Instantiates a new concurrency limiter starting at 16 requests, between
+     * 1 and 256, which backs off when the latency doubles.
+     */
+    public ConcurrencyLimiter() {
+        this(16, 1, 256, 2.0);
+    }
+
+    /**
+     * Instantiates a new concurrency limiter.
+     *
+     * @param initialLimit
+     *            the initial limit
+     * @param minLimit
+     *            the min limit
+     * @param maxLimit
+     *            the max limit
+     * @param tolerance
+     *            the ratio of the latency to its baseline above which the
+     *            peer is considered overloaded, for example 2.0
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("The limits must verify 1 <= min <= initial <= max.");
+        }
+        if (tolerance <= 1) {
+            throw new IllegalArgumentException("The tolerance must be greater than 1.");
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Waits for a permit. Every permit must be given back with release.
+     *
+     * @throws InterruptedException
+     *             if the thread is interrupted while waiting
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    /**
+     * Gives back a permit and adapts the limit to the outcome of the request.
+     *
+     * @param latency
+     *            the latency of the request, in nanoseconds
+     * @param outcome
+     *            the outcome: OVERLOAD for a timeout or a 5xx status, IGNORE
+     *            for a failure unrelated to the load, such as a 4xx status
+     */
+    public synchronized void release(long latency, Outcome outcome) {
+        boolean saturated = inFlight >= (int) limit;
+        inFlight--;
+        if (outcome == Outcome.IGNORE) {
+            notifyAll();
+            return;
+        }
+        boolean overloaded = outcome == Outcome.OVERLOAD;
+        if (!overloaded) {
+            if (baseline == 0 || latency < baseline) {
+                baseline = latency;
+            }
+            // At the min limit the peer is nearly idle, so its latency is the
+            // new baseline if the peer got slower.
+            if (limit <= minLimit) {
+                baseline += BASELINE_DRIFT * (latency - baseline);
+            }
+            overloaded = latency > baseline * tolerance;
+        }
+        if (overloaded) {
+            limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+        } else if (saturated) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Gets the limit.
+     *
+     * @return the current limit
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Gets the number of requests in flight.
+     *
+     * @return the number of requests in flight
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
@@ -0,0 +1,97 @@
+package tools;
+
+/**
+ * The Class Flow.
+ *
+ * The interfaces of reactive streams, in which a Publisher sends items to a
+ * Subscriber only as fast as the Subscriber asks for them. They have the
+ * same names, methods and rules as java.util.concurrent.Flow, which does not
+ * exist in Java 8, so that moving to it only takes changing the imports.
+ *
+ * @author Quentin Le Sceller
+ */
+public final class Flow {
+
+    private Flow() {
+    }
+
+    /**
+     * A producer of items received by Subscribers.
+     *
+     * @param <T>
+     *            the type of the items
+     */
+    @FunctionalInterface
+    public static interface Publisher<T> {
+
+        /**
+         * Adds a subscriber, whose onSubscribe method is called first. If the
+         * subscription fails, onError is called instead.
+         *
+         * @param subscriber
+         *            the subscriber
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * A receiver of items. Its methods are called one at a time, in order.
+     *
+     * @param <T>
+     *            the type of the items
+     */
+    public static interface Subscriber<T> {
+
+        /**
+         * Called before any other method, with the subscription on which
+         * items are requested.
+         *
+         * @param subscription
+         *            the subscription
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Called with the next item, never more often than requested.
+         *
+         * @param item
+         *            the item
+         */
+        void onNext(T item);
+
+        /**
+         * Called once, when the subscription fails. No other method is called
+         * afterwards.
+         *
+         * @param throwable
+         *            the failure
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Called once, when there are no more items. No other method is
+         * called afterwards.
+         */
+        void onComplete();
+    }
+
+    /**
+     * The link between a Publisher and a Subscriber.
+     */
+    public static interface Subscription {
+
+        /**
+         * Asks for n more items. A non positive n fails the subscription with
+         * an IllegalArgumentException.
+         *
+         * @param n
+         *            the number of items, Long.MAX_VALUE for no limit
+         */
+        void request(long n);
+
+        /**
+         * Stops the items, possibly after a few more.
+         */
+        void cancel();
+    }
+}
@@ -0,0 +1,477 @@
+package tools;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumDescriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+import com.google.protobuf.UnsafeByteOperations;
+
+import objects.json.JSONArray;
+import objects.json.JSONObject;
+
+/**
+ * The Class JSONProtoCodec.
+ *
+ * Decodes the JSON returned by the REST API into protobuf messages using the
+ * message descriptors. The lookup table from JSON names to fields is computed
+ * once per message type, and missing or unknown fields are simply skipped, so
+ * no exception is thrown while decoding.
+ *
+ * Bytes fields are base64 decoded by default, as the REST API encodes them.
+ * The encoding can be changed per field, and a value that is not strictly
+ * valid base64 (one alphabet, padding to a multiple of 4 characters or none,
+ * zero trailing bits) falls back to its UTF-8 bytes. A text value that is
+ * also valid base64, such as "mycc", cannot be told apart, so fields holding
+ * text must be set to UTF8 with withBytesEncoding. Bytes fields repeated across many messages,
+ * such as certificates, can be interned in a ByteStringPool. A codec is
+ * immutable and can be shared.
+ *
+ * @author Quentin Le Sceller
+ */
+public class JSONProtoCodec {
+
+    /**
+     * The encoding of the JSON strings of bytes fields.
+     */
+    public enum BytesEncoding {
+
+        /** Base64, with either the standard or the url safe alphabet. */
+        BASE64,
+
+        /** The UTF-8 bytes of the string itself. */
+        UTF8
+    }
+
+    /** The field tables, by message type. */
+    private static final ConcurrentMap<Descriptor, Map<String, FieldDescriptor>> FIELD_TABLES = new ConcurrentHashMap<Descriptor, Map<String, FieldDescriptor>>();
+
+    /** The values of the base64 characters, -1 for other characters. */
+    private static final byte[] BASE64_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+        BASE64_VALUES['+'] = 62;
+        BASE64_VALUES['-'] = 62;
+        BASE64_VALUES['/'] = 63;
+        BASE64_VALUES['_'] = 63;
+    }
+
+    /** The encoding of bytes fields without an override. */
+    private final BytesEncoding defaultBytesEncoding;
+
+    /** The encoding overrides, by field. */
+    private final Map<FieldDescriptor, BytesEncoding> bytesEncodings;
+
+    /** The intern pools, by field. */
+    private final Map<FieldDescriptor, ByteStringPool> pools;
+
+    /**
+     * Instantiates a new codec decoding every bytes field as base64.
+     */
+    public JSONProtoCodec() {
+        this(BytesEncoding.BASE64, Collections.<FieldDescriptor, BytesEncoding> emptyMap(),
+                Collections.<FieldDescriptor, ByteStringPool> emptyMap());
+    }
+
+    /**
+     * Instantiates a new codec.
+     *
+     * @param defaultBytesEncoding
+     *            the encoding of bytes fields without an override
+     * @param bytesEncodings
+     *            the encoding overrides, by field
+     * @param pools
+     *            the intern pools, by field
+     */
+    private JSONProtoCodec(BytesEncoding defaultBytesEncoding, Map<FieldDescriptor, BytesEncoding> bytesEncodings,
+            Map<FieldDescriptor, ByteStringPool> pools) {
+        this.defaultBytesEncoding = defaultBytesEncoding;
+        this.bytesEncodings = bytesEncodings;
+        this.pools = pools;
+    }
+
+    /**
+     * Returns a codec using an encoding for the bytes fields without an
+     * override.
+     *
+     * @param encoding
+     *            the encoding
+     * @return the new codec
+     */
+    public JSONProtoCodec withDefaultBytesEncoding(BytesEncoding encoding) {
+        return new JSONProtoCodec(encoding, bytesEncodings, pools);
+    }
+
+    /**
+     * Returns a codec using an encoding for one bytes field, for example
+     * {@code Transaction.getDescriptor().findFieldByName("chaincodeID")}.
+     *
+     * @param field
+     *            the field
+     * @param encoding
+     *            the encoding
+     * @return the new codec
+     */
+    public JSONProtoCodec withBytesEncoding(FieldDescriptor field, BytesEncoding encoding) {
+        Map<FieldDescriptor, BytesEncoding> encodings = new HashMap<FieldDescriptor, BytesEncoding>(bytesEncodings);
+        encodings.put(field, encoding);
+        return new JSONProtoCodec(defaultBytesEncoding, Collections.unmodifiableMap(encodings), pools);
+    }
+
+    /**
+     * Returns a codec interning the values of a bytes field in a pool, so that
+     * identical values decoded from many messages share one copy.
+     *
+     * @param field
+     *            the field
+     * @param pool
+     *            the pool, which may be shared by several fields
+     * @return the new codec
+     */
+    public JSONProtoCodec withInterning(FieldDescriptor field, ByteStringPool pool) {
+        Map<FieldDescriptor, ByteStringPool> fieldPools = new HashMap<FieldDescriptor, ByteStringPool>(pools);
+        fieldPools.put(field, pool);
+        return new JSONProtoCodec(defaultBytesEncoding, bytesEncodings, Collections.unmodifiableMap(fieldPools));
+    }
+
+    /**
+     * Decodes a JSON object into a message of the type of the prototype.
+     *
+     * @param json
+     *            the json, may be null
+     * @param prototype
+     *            the default instance of the message type
+     * @return the decoded message, or the prototype if json is null
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Message> T decode(JSONObject json, T prototype) {
+        if (json == null) {
+            return prototype;
+        }
+        Message.Builder builder = prototype.newBuilderForType();
+        merge(json, builder);
+        return (T) builder.build();
+    }
+
+    /**
+     * Merges the fields of a JSON object into a builder.
+     *
+     * @param json
+     *            the json
+     * @param builder
+     *            the builder
+     */
+    public void merge(JSONObject json, Message.Builder builder) {
+        Map<String, FieldDescriptor> table = fieldTable(builder.getDescriptorForType());
+
+        Iterator<?> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next().toString();
+            FieldDescriptor field = lookup(table, key);
+            if (field == null) {
+                continue;
+            }
+            Object value = json.opt(key);
+            if (value == null || JSONObject.NULL.equals(value)) {
+                continue;
+            }
+
+            if (field.isRepeated()) {
+                if (value instanceof JSONArray) {
+                    JSONArray array = (JSONArray) value;
+                    for (int i = 0; i < array.length(); i++) {
+                        Object converted = convert(field, array.opt(i), builder);
+                        if (converted != null) {
+                            builder.addRepeatedField(field, converted);
+                        }
+                    }
+                }
+            } else {
+                Object converted = convert(field, value, builder);
+                if (converted != null) {
+                    builder.setField(field, converted);
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts a JSON value to the java type of a field.
+     *
+     * @param field
+     *            the field
+     * @param value
+     *            the json value
+     * @param builder
+     *            the builder owning the field
+     * @return the converted value, or null if it cannot be converted
+     */
+    private Object convert(FieldDescriptor field, Object value, Message.Builder builder) {
+        if (value == null || JSONObject.NULL.equals(value)) {
+            return null;
+        }
+
+        switch (field.getJavaType()) {
+        case INT:
+            Long intValue = toLong(value);
+            return intValue == null ? null : Integer.valueOf(intValue.intValue());
+        case LONG:
+            return toLong(value);
+        case FLOAT:
+            Double floatValue = toDouble(value);
+            return floatValue == null ? null : Float.valueOf(floatValue.floatValue());
+        case DOUBLE:
+            return toDouble(value);
+        case BOOLEAN:
+            if (value instanceof Boolean) {
+                return value;
+            }
+            if ("true".equalsIgnoreCase(value.toString())) {
+                return Boolean.TRUE;
+            }
+            if ("false".equalsIgnoreCase(value.toString())) {
+                return Boolean.FALSE;
+            }
+            return null;
+        case STRING:
+            return value.toString();
+        case BYTE_STRING:
+            return toBytes(field, value.toString());
+        case ENUM:
+            return toEnum(field.getEnumType(), value);
+        case MESSAGE:
+            if (!(value instanceof JSONObject)) {
+                return null;
+            }
+            Message.Builder fieldBuilder = builder.newBuilderForField(field);
+            merge((JSONObject) value, fieldBuilder);
+            return fieldBuilder.build();
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Converts a JSON string to the bytes of a field.
+     *
+     * @param field
+     *            the field
+     * @param string
+     *            the json string
+     * @return the bytes
+     */
+    private ByteString toBytes(FieldDescriptor field, String string) {
+        BytesEncoding encoding = bytesEncodings.get(field);
+        if (encoding == null) {
+            encoding = defaultBytesEncoding;
+        }
+        ByteString bytes = null;
+        if (encoding == BytesEncoding.BASE64) {
+            bytes = decodeBase64(string);
+        }
+        if (bytes == null) {
+            bytes = ByteString.copyFromUtf8(string);
+        }
+        ByteStringPool pool = pools.get(field);
+        return pool == null ? bytes : pool.intern(bytes);
+    }
+
+    /**
+     * Decodes base64 straight from the characters of a string into the array
+     * backing the returned ByteString, so that the bytes are allocated once
+     * and not copied.
+     *
+     * @param string
+     *            the base64 string, padded or not
+     * @return the bytes, or null if the string is not strictly base64: it
+     *         mixes the two alphabets, is padded to a length that is not a
+     *         multiple of 4, or has non zero bits after the last byte
+     */
+    static ByteString decodeBase64(String string) {
+        int end = string.length();
+        while (end > 0 && string.charAt(end - 1) == '=') {
+            end--;
+        }
+        int padding = string.length() - end;
+        if (padding > 2 || end % 4 == 1 || (padding > 0 && string.length() % 4 != 0)) {
+            return null;
+        }
+        if (end == 0) {
+            return ByteString.EMPTY;
+        }
+
+        byte[] bytes = new byte[end / 4 * 3 + Math.max(end % 4 - 1, 0)];
+        int position = 0;
+        int accumulator = 0;
+        int bits = 0;
+        boolean standard = false;
+        boolean urlSafe = false;
+        for (int i = 0; i < end; i++) {
+            char c = string.charAt(i);
+            int value = c < 128 ? BASE64_VALUES[c] : -1;
+            if (value < 0) {
+                return null;
+            }
+            if (c == '+' || c == '/') {
+                standard = true;
+            } else if (c == '-' || c == '_') {
+                urlSafe = true;
+            }
+            accumulator = (accumulator << 6 | value) & 0xFFFFFF;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                bytes[position++] = (byte) (accumulator >> bits);
+            }
+        }
+        if ((standard && urlSafe) || (accumulator & ((1 << bits) - 1)) != 0) {
+            return null;
+        }
+        return UnsafeByteOperations.unsafeWrap(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Converts a JSON value to an enum value, by number or by name.
+     *
+     * @param enumType
+     *            the enum type
+     * @param value
+     *            the json value
+     * @return the enum value, or null if not found
+     */
+    private EnumValueDescriptor toEnum(EnumDescriptor enumType, Object value) {
+        if (value instanceof Number) {
+            return enumType.findValueByNumber(((Number) value).intValue());
+        }
+        String name = value.toString();
+        EnumValueDescriptor enumValue = enumType.findValueByName(name);
+        if (enumValue == null) {
+            Long number = parseLong(name);
+            if (number != null) {
+                enumValue = enumType.findValueByNumber(number.intValue());
+            }
+        }
+        return enumValue;
+    }
+
+    /**
+     * Converts a JSON value to a long.
+     *
+     * @param value
+     *            the json value
+     * @return the long, or null if the value is not an integer
+     */
+    private Long toLong(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return parseLong(value.toString());
+    }
+
+    /**
+     * Converts a JSON value to a double.
+     *
+     * @param value
+     *            the json value
+     * @return the double, or null if the value is not a number
+     */
+    private Double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        Object number = JSONObject.stringToValue(value.toString());
+        return number instanceof Number ? Double.valueOf(((Number) number).doubleValue()) : null;
+    }
+
+    /**
+     * Parses a decimal long without throwing.
+     *
+     * @param string
+     *            the string
+     * @return the long, or null if the string is not a decimal integer
+     */
+    private static Long parseLong(String string) {
+        int length = string.length();
+        if (length == 0 || length > 20) {
+            return null;
+        }
+        int start = string.charAt(0) == '-' ? 1 : 0;
+        if (start == length) {
+            return null;
+        }
+        for (int i = start; i < length; i++) {
+            char c = string.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+        }
+        if (length - start < 19) {
+            return Long.parseLong(string);
+        }
+        // Out of range values are ignored rather than thrown.
+        BigInteger big = new BigInteger(string);
+        return big.bitLength() < 64 ? big.longValue() : null;
+    }
+
+    /**
+     * Looks up the field matching a JSON key.
+     *
+     * @param table
+     *            the field table
+     * @param key
+     *            the json key
+     * @return the field, or null if none matches
+     */
+    private static FieldDescriptor lookup(Map<String, FieldDescriptor> table, String key) {
+        FieldDescriptor field = table.get(key);
+        if (field == null) {
+            field = table.get(key.toLowerCase());
+        }
+        return field;
+    }
+
+    /**
+     * Gets the field table of a message type, computing it on first use.
+     *
+     * @param descriptor
+     *            the message descriptor
+     * @return the table from json names to fields
+     */
+    private static Map<String, FieldDescriptor> fieldTable(Descriptor descriptor) {
+        Map<String, FieldDescriptor> table = FIELD_TABLES.get(descriptor);
+        if (table == null) {
+            table = new HashMap<String, FieldDescriptor>();
+            // Lower case names first, so that exact names take precedence.
+            for (FieldDescriptor field : descriptor.getFields()) {
+                table.put(field.getName().toLowerCase(), field);
+                table.put(field.getJsonName().toLowerCase(), field);
+            }
+            for (FieldDescriptor field : descriptor.getFields()) {
+                table.put(field.getName(), field);
+                table.put(field.getJsonName(), field);
+            }
+            Map<String, FieldDescriptor> previous = FIELD_TABLES.putIfAbsent(descriptor, table);
+            if (previous != null) {
+                table = previous;
+            }
+        }
+        return table;
+    }
+
+}
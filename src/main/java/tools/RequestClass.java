@@ -0,0 +1,21 @@
+package tools;
+
+/**
+ * The Enum RequestClass.
+ * 
+ * The classes of requests a RequestScheduler shares the capacity of a peer
+ * between.
+ * 
+ * @author Quentin Le Sceller
+ */
+public enum RequestClass {
+
+    /** The user facing reads: query, chain info, transactions, registrar. */
+    INTERACTIVE,
+
+    /** The deploys and invokes. */
+    INVOKE,
+
+    /** The block reads, which history backfills issue in loops. */
+    BULK
+}
@@ -0,0 +1,213 @@
+package tools;
+
+import java.util.ArrayDeque;
+
+import objects.exception.RequestRejectedException;
+
+/**
+ * The Class RequestScheduler.
+ *
+ * Shares the capacity of a peer, a number of requests in flight, between the
+ * request classes. Each class has its own bounded queue and its own limit of
+ * requests in flight, which acts as a bulkhead, and a weight. When the peer
+ * is busy, freed slots go to the waiting classes in proportion to their
+ * weights, by stride scheduling, so that a backfill reading blocks in a loop
+ * cannot starve the interactive queries sent through the same client.
+ * <p/>
+ * By default the interactive requests weigh 8, the invokes 4 and the bulk
+ * reads 1, and the bulk reads may use at most half of the capacity. Each
+ * queue holds 1024 requests.
+ * <p/>
+ * A RequestScheduler is thread safe.
+ *
+ * @author Quentin Le Sceller
+ */
+public class RequestScheduler {
+
+    /**
+     * A request waiting for a slot.
+     */
+    private static final class Waiter {
+
+        /** Whether the waiter got a slot. */
+        boolean granted;
+    }
+
+    /** The number of requests in flight. */
+    private final int capacity;
+
+    /** The weights, per class. */
+    private final int[] weights;
+
+    /** The limits of requests in flight, per class. */
+    private final int[] limits;
+
+    /** The max queue sizes, per class. */
+    private final int[] maxQueued;
+
+    /** The queues, per class. */
+    private final ArrayDeque<Waiter>[] queues;
+
+    /** The requests in flight, per class. */
+    private final int[] classInFlight;
+
+    /** The stride scheduling passes, per class. */
+    private final double[] passes;
+
+    /** The requests in flight. */
+    private int inFlight;
+
+    /** The pass of the last class granted a slot. */
+    private double virtualTime;
+
+    /**
+     * Instantiates a new request scheduler with the default classes.
+     *
+     * @param capacity
+     *            the max number of requests in flight to the peer
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public RequestScheduler(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be positive.");
+        }
+        int classes = RequestClass.values().length;
+        this.capacity = capacity;
+        this.weights = new int[classes];
+        this.limits = new int[classes];
+        this.maxQueued = new int[classes];
+        this.queues = new ArrayDeque[classes];
+        this.classInFlight = new int[classes];
+        this.passes = new double[classes];
+        for (int c = 0; c < classes; c++) {
+            queues[c] = new ArrayDeque<Waiter>();
+        }
+        configure(RequestClass.INTERACTIVE, 8, capacity, 1024);
+        configure(RequestClass.INVOKE, 4, capacity, 1024);
+        configure(RequestClass.BULK, 1, Math.max(1, capacity / 2), 1024);
+    }
+
+    /**
+     * Configures a request class.
+     *
+     * @param requestClass
+     *            the request class
+     * @param weight
+     *            the share of the capacity the class gets when the peer is
+     *            busy, relative to the other classes
+     * @param maxConcurrent
+     *            the max number of requests of the class in flight
+     * @param maxQueue
+     *            the max number of requests of the class waiting, beyond which
+     *            requests are rejected
+     * @return this scheduler
+     */
+    public synchronized RequestScheduler configure(RequestClass requestClass, int weight, int maxConcurrent,
+            int maxQueue) {
+        if (weight < 1 || maxConcurrent < 1 || maxQueue < 0) {
+            throw new IllegalArgumentException("The weight and limit must be positive, the queue size not negative.");
+        }
+        int c = requestClass.ordinal();
+        weights[c] = weight;
+        limits[c] = Math.min(maxConcurrent, capacity);
+        maxQueued[c] = maxQueue;
+        return this;
+    }
+
+    /**
+     * Waits for a slot. Every slot must be given back with release.
+     *
+     * @param requestClass
+     *            the class of the request
+     * @throws InterruptedException
+     *             if the thread is interrupted while waiting
+     * @throws RequestRejectedException
+     *             if the queue of the class is full
+     */
+    public synchronized void acquire(RequestClass requestClass) throws InterruptedException {
+        int c = requestClass.ordinal();
+        if (queues[c].isEmpty()) {
+            // A class coming back from idle does not get credit for the time
+            // it did not use.
+            passes[c] = Math.max(passes[c], virtualTime);
+        }
+        if (queues[c].size() >= maxQueued[c]) {
+            throw new RequestRejectedException("Queue of the " + requestClass + " requests is full.");
+        }
+        Waiter waiter = new Waiter();
+        queues[c].add(waiter);
+        dispatch();
+        try {
+            while (!waiter.granted) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            if (waiter.granted) {
+                release(requestClass);
+            } else {
+                queues[c].remove(waiter);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Gives back a slot.
+     *
+     * @param requestClass
+     *            the class of the request
+     */
+    public synchronized void release(RequestClass requestClass) {
+        inFlight--;
+        classInFlight[requestClass.ordinal()]--;
+        dispatch();
+    }
+
+    /**
+     * Gets the number of requests of a class waiting.
+     *
+     * @param requestClass
+     *            the request class
+     * @return the number of requests waiting
+     */
+    public synchronized int getQueued(RequestClass requestClass) {
+        return queues[requestClass.ordinal()].size();
+    }
+
+    /**
+     * Gets the number of requests in flight.
+     *
+     * @return the number of requests in flight
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Grants the free slots to the waiting classes with the lowest passes.
+     */
+    private void dispatch() {
+        boolean granted = false;
+        while (inFlight < capacity) {
+            int next = -1;
+            for (int c = 0; c < queues.length; c++) {
+                if (!queues[c].isEmpty() && classInFlight[c] < limits[c]
+                        && (next < 0 || passes[c] < passes[next])) {
+                    next = c;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            queues[next].poll().granted = true;
+            inFlight++;
+            classInFlight[next]++;
+            virtualTime = passes[next];
+            passes[next] += 1.0 / weights[next];
+            granted = true;
+        }
+        if (granted) {
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package tools;
+
+/**
+ * The Class RetryBudget.
+ * 
+ * Bounds the retries to a fraction of the requests, so that retries cannot
+ * multiply the load on peers that are already failing. Every request deposits
+ * a fraction of a token, every retry withdraws a whole one, and the balance
+ * is capped so that a quiet period does not save up a retry storm.
+ * <p/>
+ * A RetryBudget is thread safe and can be shared by several clients.
+ * 
+ * @author Quentin Le Sceller
+ */
+public class RetryBudget {
+
+    /** The tokens deposited per request. */
+    private final double ratio;
+
+    /** The max balance. */
+    private final double maxTokens;
+
+    /** The balance. */
+    private double tokens;
+
+    /**
+     * Instantiates a new retry budget allowing 10% of retries, with a balance
+     * of 10 retries.
+     */
+    public RetryBudget() {
+        this(0.1, 10);
+    }
+
+    /**
+     * Instantiates a new retry budget.
+     *
+     * @param ratio
+     *            the retries allowed per request, for example 0.1
+     * @param maxTokens
+     *            the max number of retries saved up, also the initial balance
+     */
+    public RetryBudget(double ratio, int maxTokens) {
+        if (ratio < 0 || maxTokens < 0) {
+            throw new IllegalArgumentException("The ratio and the balance must not be negative.");
+        }
+        this.ratio = ratio;
+        this.maxTokens = maxTokens;
+        this.tokens = maxTokens;
+    }
+
+    /**
+     * Records a request.
+     */
+    public synchronized void deposit() {
+        tokens = Math.min(maxTokens, tokens + ratio);
+    }
+
+    /**
+     * Asks for a retry.
+     *
+     * @return true if the retry may be sent
+     */
+    public synchronized boolean tryWithdraw() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+}
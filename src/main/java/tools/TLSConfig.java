@@ -0,0 +1,379 @@
+package tools;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * The Class TLSConfig.
+ *
+ * The TLS settings of a client: trusted certificates, client certificate,
+ * protocols and cipher suites. The SSLContext is created once, when the
+ * config is built, and every https connection of the client uses its socket
+ * factory. Reusing one factory lets the JVM keep-alive cache reuse idle
+ * connections. Reusing one context lets new connections resume a cached TLS
+ * session with an abbreviated handshake instead of a full one.
+ * <p/>
+ * By default the JVM trust store is used, the cache holds 256 sessions and a
+ * session can be resumed for an hour.
+ * <p/>
+ * A TLSConfig is immutable and can be shared between clients, which then
+ * share the session cache.
+ *
+ * @author Quentin Le Sceller
+ */
+public class TLSConfig {
+
+    /** The ssl context. */
+    private final SSLContext sslContext;
+
+    /** The socket factory. */
+    private final SSLSocketFactory socketFactory;
+
+    /**
+     * The Class Builder.
+     *
+     * Collects the TLS settings. A builder is not thread safe.
+     */
+    public static final class Builder {
+
+        /** The protocol of the context. */
+        private String protocol = "TLS";
+
+        /** The trust store, null for the JVM default. */
+        private KeyStore trustStore;
+
+        /** The key store, null for no client certificate. */
+        private KeyStore keyStore;
+
+        /** The key store password. */
+        private char[] keyPassword;
+
+        /** The enabled protocols, null for the defaults. */
+        private String[] enabledProtocols;
+
+        /** The enabled cipher suites, null for the defaults. */
+        private String[] cipherSuites;
+
+        /** The session cache size. */
+        private int sessionCacheSize = 256;
+
+        /** The session timeout, in seconds. */
+        private int sessionTimeout = 3600;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the protocol of the SSLContext.
+         *
+         * @param protocol
+         *            the protocol, "TLS" by default
+         * @return this builder
+         */
+        public Builder setProtocol(String protocol) {
+            this.protocol = protocol;
+            return this;
+        }
+
+        /**
+         * Sets the certificates trusted to identify the peers, for example
+         * the certificate authority of the network.
+         *
+         * @param trustStore
+         *            the trust store, null for the JVM default
+         * @return this builder
+         */
+        public Builder setTrustStore(KeyStore trustStore) {
+            this.trustStore = trustStore;
+            return this;
+        }
+
+        /**
+         * Sets the client certificate and its key.
+         *
+         * @param keyStore
+         *            the key store, null for no client certificate
+         * @param keyPassword
+         *            the password of the keys
+         * @return this builder
+         */
+        public Builder setKeyStore(KeyStore keyStore, char[] keyPassword) {
+            this.keyStore = keyStore;
+            this.keyPassword = keyPassword;
+            return this;
+        }
+
+        /**
+         * Sets the enabled protocols, such as "TLSv1.2".
+         *
+         * @param enabledProtocols
+         *            the protocols, null for the defaults
+         * @return this builder
+         */
+        public Builder setEnabledProtocols(String... enabledProtocols) {
+            this.enabledProtocols = enabledProtocols;
+            return this;
+        }
+
+        /**
+         * Sets the enabled cipher suites.
+         *
+         * @param cipherSuites
+         *            the cipher suites, null for the defaults
+         * @return this builder
+         */
+        public Builder setCipherSuites(String... cipherSuites) {
+            this.cipherSuites = cipherSuites;
+            return this;
+        }
+
+        /**
+         * Sets the number of TLS sessions cached for resumption. A client
+         * needs about one per peer.
+         *
+         * @param sessionCacheSize
+         *            the session cache size, 0 for no limit
+         * @return this builder
+         */
+        public Builder setSessionCacheSize(int sessionCacheSize) {
+            this.sessionCacheSize = sessionCacheSize;
+            return this;
+        }
+
+        /**
+         * Sets how long a TLS session can be resumed; afterwards the next
+         * connection does a full handshake.
+         *
+         * @param sessionTimeout
+         *            the session timeout, in seconds, 0 for no limit
+         * @return this builder
+         */
+        public Builder setSessionTimeout(int sessionTimeout) {
+            this.sessionTimeout = sessionTimeout;
+            return this;
+        }
+
+        /**
+         * Creates the SSLContext.
+         *
+         * @return the TLS config
+         * @throws IllegalArgumentException
+         *             if the stores, protocols or cipher suites are not
+         *             usable
+         */
+        public TLSConfig build() {
+            if (sessionCacheSize < 0 || sessionTimeout < 0) {
+                throw new IllegalArgumentException("Negative session cache size or timeout.");
+            }
+            return new TLSConfig(this);
+        }
+    }
+
+    /**
+     * Creates a new builder.
+     *
+     * @return the builder
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Instantiates a new TLS config.
+     *
+     * @param builder
+     *            the builder
+     */
+    protected TLSConfig(Builder builder) {
+        try {
+            TrustManagerFactory trustManagers = TrustManagerFactory
+                    .getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagers.init(builder.trustStore);
+            KeyManagerFactory keyManagers = null;
+            if (builder.keyStore != null) {
+                keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+                keyManagers.init(builder.keyStore, builder.keyPassword);
+            }
+            sslContext = SSLContext.getInstance(builder.protocol);
+            sslContext.init(keyManagers != null ? keyManagers.getKeyManagers() : null,
+                    trustManagers.getTrustManagers(), null);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Cannot create the SSL context.", e);
+        }
+        SSLSessionContext sessions = sslContext.getClientSessionContext();
+        sessions.setSessionCacheSize(builder.sessionCacheSize);
+        sessions.setSessionTimeout(builder.sessionTimeout);
+
+        SSLSocketFactory factory = sslContext.getSocketFactory();
+        if (builder.enabledProtocols != null || builder.cipherSuites != null) {
+            // Fails now on an unknown protocol or cipher suite, rather than
+            // on the first connection.
+            SSLEngine engine = sslContext.createSSLEngine();
+            if (builder.enabledProtocols != null) {
+                engine.setEnabledProtocols(builder.enabledProtocols);
+            }
+            if (builder.cipherSuites != null) {
+                engine.setEnabledCipherSuites(builder.cipherSuites);
+            }
+            factory = new ConfiguringSocketFactory(factory, builder.enabledProtocols, builder.cipherSuites);
+        }
+        socketFactory = factory;
+    }
+
+    /**
+     * Gets the SSL context, for example to inspect its session cache.
+     *
+     * @return the SSL context
+     */
+    public SSLContext getSSLContext() {
+        return sslContext;
+    }
+
+    /**
+     * Gets the socket factory of the https connections.
+     *
+     * @return the socket factory
+     */
+    public SSLSocketFactory getSocketFactory() {
+        return socketFactory;
+    }
+
+    /**
+     * The Class ConfiguringSocketFactory.
+     *
+     * Restricts the protocols and cipher suites of the sockets of another
+     * factory.
+     */
+    private static final class ConfiguringSocketFactory extends SSLSocketFactory {
+
+        /** The factory creating the sockets. */
+        private final SSLSocketFactory delegate;
+
+        /** The enabled protocols, null for the defaults. */
+        private final String[] enabledProtocols;
+
+        /** The enabled cipher suites, null for the defaults. */
+        private final String[] cipherSuites;
+
+        ConfiguringSocketFactory(SSLSocketFactory delegate, String[] enabledProtocols, String[] cipherSuites) {
+            this.delegate = delegate;
+            this.enabledProtocols = enabledProtocols != null ? enabledProtocols.clone() : null;
+            this.cipherSuites = cipherSuites != null ? cipherSuites.clone() : null;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.net.ssl.SSLSocketFactory#getDefaultCipherSuites()
+         */
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return cipherSuites != null ? cipherSuites.clone() : delegate.getDefaultCipherSuites();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.net.ssl.SSLSocketFactory#getSupportedCipherSuites()
+         */
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.net.SocketFactory#createSocket()
+         */
+        @Override
+        public Socket createSocket() throws IOException {
+            return configure(delegate.createSocket());
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.net.ssl.SSLSocketFactory#createSocket(java.net.Socket,
+         * java.lang.String, int, boolean)
+         */
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            return configure(delegate.createSocket(socket, host, port, autoClose));
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.net.SocketFactory#createSocket(java.lang.String, int)
+         */
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return configure(delegate.createSocket(host, port));
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.net.SocketFactory#createSocket(java.lang.String, int,
+         * java.net.InetAddress, int)
+         */
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return configure(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.net.SocketFactory#createSocket(java.net.InetAddress, int)
+         */
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return configure(delegate.createSocket(host, port));
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.net.SocketFactory#createSocket(java.net.InetAddress, int,
+         * java.net.InetAddress, int)
+         */
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return configure(delegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        /**
+         * Sets the enabled protocols and cipher suites of a socket.
+         *
+         * @param socket
+         *            the socket
+         * @return the socket
+         */
+        private Socket configure(Socket socket) {
+            if (socket instanceof SSLSocket) {
+                SSLSocket sslSocket = (SSLSocket) socket;
+                if (enabledProtocols != null) {
+                    sslSocket.setEnabledProtocols(enabledProtocols);
+                }
+                if (cipherSuites != null) {
+                    sslSocket.setEnabledCipherSuites(cipherSuites);
+                }
+            }
+            return socket;
+        }
+    }
+}
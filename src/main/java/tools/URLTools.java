@@ -1,28 +1,91 @@
 package tools;
 
 import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.ProtocolException;
 import java.net.URL;
 import java.net.URLConnection;
-
+import java.nio.charset.StandardCharsets;
 import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
 
+import objects.exception.BlockchainException;
 import objects.exception.JSONException;
+import objects.exception.PeerIOException;
 import objects.json.JSONObject;
+import objects.json.JSONPathScanner;
 import objects.json.JSONTokener;
 
 /**
  * The Class URLTools.
  * 
+ * Instances hold only their configuration and can be shared between threads.
+ * Failed requests throw a BlockchainException: a PeerIOException when the
+ * peer cannot be reached or answers with an error status.
+ * 
  * @author Quentin Le Sceller
  */
 public class URLTools {
 
+    /** The connect timeout, in milliseconds, 0 for none. */
+    private final int connectTimeout;
+
+    /** The read timeout, in milliseconds, 0 for none. */
+    private final int readTimeout;
+
+    /** The socket factory of the https connections, null for the JVM default. */
+    private final SSLSocketFactory sslSocketFactory;
+
+    /**
+     * Instantiates new url tools without timeouts.
+     */
+    public URLTools() {
+        this(0, 0);
+    }
+
+    /**
+     * Instantiates new url tools.
+     *
+     * @param connectTimeout
+     *            the connect timeout, in milliseconds, 0 for none
+     * @param readTimeout
+     *            the read timeout, in milliseconds, 0 for none
+     */
+    public URLTools(int connectTimeout, int readTimeout) {
+        this(connectTimeout, readTimeout, null);
+    }
+
+    /**
+     * Instantiates new url tools with a socket factory for https. Passing the
+     * same factory to every connection lets idle connections be reused and
+     * TLS sessions be resumed.
+     *
+     * @param connectTimeout
+     *            the connect timeout, in milliseconds, 0 for none
+     * @param readTimeout
+     *            the read timeout, in milliseconds, 0 for none
+     * @param sslSocketFactory
+     *            the socket factory of the https connections, null for the
+     *            JVM default
+     */
+    public URLTools(int connectTimeout, int readTimeout, SSLSocketFactory sslSocketFactory) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.sslSocketFactory = sslSocketFactory;
+    }
+
+    /**
+     * Gets the read timeout.
+     *
+     * @return the read timeout, in milliseconds, 0 for none
+     */
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
     /**
      * Gets the json.
      *
@@ -30,33 +93,36 @@ public class URLTools {
      *            the url
      * @return the json
      * @throws BlockchainException
-     *             the blockchain exception
+     *             if the peer fails or the response is not JSON
      */
     public JSONObject getJSON(URL url) {
+        return request(url, "GET", null);
+    }
 
-        JSONObject json = null;
-
-        URLConnection conn;
-
-        InputStream is;
-
+    /**
+     * Scans the json returned by an url, reporting only the values at the
+     * paths registered on the scanner. Works for both http and https urls.
+     *
+     * @param url
+     *            the url
+     * @param scanner
+     *            the scanner
+     * @throws BlockchainException
+     *             if the peer fails or the response is not JSON
+     */
+    public void scanJSON(URL url, JSONPathScanner scanner) {
         try {
-            conn = url.openConnection();
-            is = conn.getInputStream();
-            try {
-                JSONTokener tokener = new JSONTokener(is);
-                json = new JSONObject(tokener);
+            HttpURLConnection conn = connect(url, "GET", null);
+            try (InputStream is = conn.getInputStream()) {
+                scanner.scan(is);
             } catch (JSONException e) {
-                e.printStackTrace();
-
+                throw new BlockchainException("Malformed JSON from " + url, e);
             }
         } catch (IOException e) {
-
-            e.printStackTrace();
+            throw failure(url, e);
+        } finally {
+            AbortSignal.detach();
         }
-
-        return json;
-
     }
 
     /**
@@ -67,51 +133,11 @@ public class URLTools {
      * @param parameters
      *            the parameters
      * @return the JSON object
+     * @throws BlockchainException
+     *             if the peer fails or the response is not JSON
      */
     public JSONObject sendPost(URL url, String parameters) {
-        JSONObject output = null;
-        HttpURLConnection con;
-        try {
-            con = (HttpURLConnection) url.openConnection();
-            try {
-                con.setRequestMethod("POST");
-                con.setDoOutput(true);
-
-                try {
-                    DataOutputStream wr = new DataOutputStream(con.getOutputStream());
-                    wr.writeBytes(parameters);
-                    wr.flush();
-                    wr.close();
-                    BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream()));
-                    String inputLine;
-                    StringBuffer response = new StringBuffer();
-
-                    while ((inputLine = in.readLine()) != null) {
-                        response.append(inputLine);
-                    }
-                    in.close();
-
-                    try {
-                        output = new JSONObject(response.toString());
-                    } catch (JSONException e) {
-
-                        e.printStackTrace();
-                    }
-                } catch (IOException e) {
-
-                    e.printStackTrace();
-                }
-
-            } catch (ProtocolException e) {
-
-                e.printStackTrace();
-            }
-        } catch (IOException e) {
-
-            e.printStackTrace();
-        }
-        return output;
-
+        return request(url, "POST", parameters);
     }
 
     /**
@@ -121,47 +147,11 @@ public class URLTools {
      *            the url
      * 
      * @return the JSON object
+     * @throws BlockchainException
+     *             if the peer fails or the response is not JSON
      */
     public JSONObject sendDelete(URL url) {
-        JSONObject output = null;
-        HttpURLConnection con;
-        try {
-            con = (HttpURLConnection) url.openConnection();
-            try {
-                con.setRequestMethod("DELETE");
-                con.setDoOutput(true);
-
-                try {
-                    BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream()));
-                    String inputLine;
-                    StringBuffer response = new StringBuffer();
-
-                    while ((inputLine = in.readLine()) != null) {
-                        response.append(inputLine);
-                    }
-                    in.close();
-
-                    try {
-                        output = new JSONObject(response.toString());
-                    } catch (JSONException e) {
-
-                        e.printStackTrace();
-                    }
-                } catch (IOException e) {
-
-                    e.printStackTrace();
-                }
-
-            } catch (ProtocolException e) {
-
-                e.printStackTrace();
-            }
-        } catch (IOException e) {
-
-            e.printStackTrace();
-        }
-        return output;
-
+        return request(url, "DELETE", null);
     }
 
     /**
@@ -171,31 +161,10 @@ public class URLTools {
      *            the url
      * @return the httpsjson
      * @throws BlockchainException
-     *             the blockchain exception
+     *             if the peer fails or the response is not JSON
      */
     public JSONObject getHTTPSJSON(URL url) {
-        JSONObject json = null;
-        HttpsURLConnection conn;
-
-        InputStream is;
-
-        try {
-            conn = (HttpsURLConnection) url.openConnection();
-            is = conn.getInputStream();
-            try {
-                JSONTokener tokener = new JSONTokener(is);
-                json = new JSONObject(tokener);
-            } catch (JSONException e) {
-                e.printStackTrace();
-
-            }
-        } catch (IOException e) {
-
-            e.printStackTrace();
-        }
-
-        return json;
-
+        return request(url, "GET", null);
     }
 
     /**
@@ -206,55 +175,11 @@ public class URLTools {
      * @param parameters
      *            the parameters
      * @return the JSON object
+     * @throws BlockchainException
+     *             if the peer fails or the response is not JSON
      */
     public JSONObject sendHTTPSPost(URL url, String parameters) {
-        JSONObject output = null;
-
-        HttpsURLConnection con;
-        try {
-            con = (HttpsURLConnection) url.openConnection();
-            try {
-                con.setRequestMethod("POST");
-                con.setDoOutput(true);
-
-                try {
-                    DataOutputStream wr = new DataOutputStream(con.getOutputStream());
-                    wr.writeBytes(parameters);
-                    wr.flush();
-                    wr.close();
-                    BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream()));
-                    String inputLine;
-                    StringBuffer response = new StringBuffer();
-
-                    while ((inputLine = in.readLine()) != null) {
-                        response.append(inputLine);
-                    }
-                    in.close();
-
-                    try {
-                        output = new JSONObject(response.toString());
-                    } catch (JSONException e) {
-
-                        e.printStackTrace();
-                    }
-                } catch (IOException e) {
-
-                    e.printStackTrace();
-                }
-
-            } catch (ProtocolException e) {
-
-                e.printStackTrace();
-            }
-        } catch (IOException e) {
-
-            e.printStackTrace();
-        }
-
-        // Send post request
-
-        return output;
-
+        return request(url, "POST", parameters);
     }
 
     /**
@@ -263,47 +188,135 @@ public class URLTools {
      * @param url
      *            the url
      * @return the JSON object
+     * @throws BlockchainException
+     *             if the peer fails or the response is not JSON
      */
     public JSONObject sendHTTPSDelete(URL url) {
-        JSONObject output = null;
-        HttpsURLConnection con;
-        try {
-            con = (HttpsURLConnection) url.openConnection();
-            try {
-                con.setRequestMethod("DELETE");
-                con.setDoOutput(true);
-
-                try {
-
-                    BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream()));
-                    String inputLine;
-                    StringBuffer response = new StringBuffer();
-
-                    while ((inputLine = in.readLine()) != null) {
-                        response.append(inputLine);
-                    }
-                    in.close();
-
-                    try {
-                        output = new JSONObject(response.toString());
-                    } catch (JSONException e) {
+        return request(url, "DELETE", null);
+    }
 
-                        e.printStackTrace();
-                    }
-                } catch (IOException e) {
+    /**
+     * Sends a request and parses the JSON response.
+     *
+     * @param url
+     *            the url, http or https
+     * @param method
+     *            the http method
+     * @param body
+     *            the body, or null
+     * @return the JSON object
+     * @throws BlockchainException
+     *             if the peer fails or the response is not JSON
+     */
+    private JSONObject request(URL url, String method, String body) {
+        try {
+            HttpURLConnection conn = connect(url, method, body);
+            try (InputStream is = conn.getInputStream()) {
+                return new JSONObject(new JSONTokener(new InputStreamReader(is, StandardCharsets.UTF_8)));
+            } catch (JSONException e) {
+                throw new BlockchainException("Malformed JSON from " + url, e);
+            }
+        } catch (IOException e) {
+            throw failure(url, e);
+        } finally {
+            AbortSignal.detach();
+        }
+    }
 
-                    e.printStackTrace();
-                }
+    /**
+     * Wraps the I/O failure of a request: a PeerIOException, or a
+     * BlockchainException that is not retryable if the request was aborted
+     * through an AbortSignal.
+     *
+     * @param url
+     *            the url
+     * @param e
+     *            the I/O failure
+     * @return the exception to throw
+     */
+    private static BlockchainException failure(URL url, IOException e) {
+        if (AbortSignal.isCurrentAborted()) {
+            return new BlockchainException("Request to " + url + " aborted", e);
+        }
+        return new PeerIOException("Request to " + url + " failed", e);
+    }
 
-            } catch (ProtocolException e) {
+    /**
+     * Sends a request and checks the response status. The connection is
+     * attached to the AbortSignal of the current thread, if any, once it is
+     * open.
+     *
+     * @param url
+     *            the url, http or https
+     * @param method
+     *            the http method
+     * @param body
+     *            the body, or null
+     * @return the connection, ready to read the response
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @throws PeerIOException
+     *             if the response status is an error
+     */
+    private HttpURLConnection connect(URL url, String method, String body) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) openConnection(url);
+        conn.setRequestMethod(method);
+        conn.setDoOutput(body != null);
+        conn.connect();
+        AbortSignal.attach(conn);
+        if (body != null) {
+            try (OutputStream os = conn.getOutputStream()) {
+                os.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = conn.getResponseCode();
+        if (status >= 400) {
+            throw new PeerIOException(method + " " + url + " returned " + status + errorMessage(conn), status);
+        }
+        return conn;
+    }
 
-                e.printStackTrace();
+    /**
+     * Reads the error message of a failed response, so that the connection
+     * can be reused.
+     *
+     * @param conn
+     *            the connection
+     * @return the message, prefixed with ": ", or an empty string
+     */
+    private static String errorMessage(HttpURLConnection conn) {
+        InputStream es = conn.getErrorStream();
+        if (es == null) {
+            return "";
+        }
+        StringBuilder message = new StringBuilder(": ");
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(es, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null && message.length() < 512) {
+                message.append(line);
             }
         } catch (IOException e) {
-
-            e.printStackTrace();
+            return "";
         }
-        return output;
+        return message.toString();
+    }
 
+    /**
+     * Opens a connection with the configured timeouts and socket factory.
+     *
+     * @param url
+     *            the url
+     * @return the connection
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private URLConnection openConnection(URL url) throws IOException {
+        URLConnection conn = url.openConnection();
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+        if (sslSocketFactory != null && conn instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) conn).setSSLSocketFactory(sslSocketFactory);
+        }
+        return conn;
     }
 }
@@ -0,0 +1,147 @@
+package fabric4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import protos.Openchain.Block;
+
+/**
+ * The Class BlockchainConcurrencyTest.
+ *
+ * Shares one Blockchain between many threads against a local stub peer, and
+ * checks that every response reaches the thread that asked for it and that
+ * the max number of concurrent requests is respected.
+ *
+ * @author Quentin Le Sceller
+ */
+public class BlockchainConcurrencyTest {
+
+    /** The number of threads sharing the blockchain. */
+    private static final int THREADS = 16;
+
+    /** The number of blocks fetched by each thread. */
+    private static final int REQUESTS_PER_THREAD = 50;
+
+    /** The max number of concurrent requests of the blockchain. */
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
+
+    /** The stub peer. */
+    private HttpServer server;
+
+    /** The executor of the stub peer. */
+    private ExecutorService serverExecutor;
+
+    /** The requests being served. */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /** The max number of requests served at once. */
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @BeforeClass
+    public static void disableNagle() {
+        // Otherwise the stub sends its headers and body in two packets, and
+        // each response waits for the client's delayed ACK.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    @Before
+    public void startPeer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(0), 0);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.createContext("/chain/blocks/", this::serveBlock);
+        server.start();
+    }
+
+    @After
+    public void stopPeer() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    /**
+     * Answers a block whose only transaction has the block number as uuid,
+     * after a short delay so that the requests overlap.
+     */
+    private void serveBlock(HttpExchange exchange) throws IOException {
+        int current = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(current, Math::max);
+        try {
+            Thread.sleep(2);
+            String path = exchange.getRequestURI().getPath();
+            String blockNumber = path.substring(path.lastIndexOf('/') + 1);
+            byte[] body = ("{\"transactions\":[{\"uuid\":\"" + blockNumber + "\"}]}").getBytes(StandardCharsets.UTF_8);
+            inFlight.decrementAndGet();
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        } catch (InterruptedException e) {
+            inFlight.decrementAndGet();
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Test
+    public void sharedBlockchainServesConcurrentReads() throws Exception {
+        final Blockchain blockchain = Blockchain.newBuilder().setHost("localhost")
+                .setPort(server.getAddress().getPort()).setMaxConcurrentRequests(MAX_CONCURRENT_REQUESTS)
+                .setReadTimeout(10000).build();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService clients = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+                results.add(clients.submit(new Callable<Integer>() {
+
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        int checked = 0;
+                        for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                            int blockNumber = thread * REQUESTS_PER_THREAD + i;
+                            Block block = blockchain.getBlock(blockNumber);
+                            assertEquals(String.valueOf(blockNumber), block.getTransactions(0).getUuid());
+                            checked++;
+                        }
+                        return checked;
+                    }
+                }));
+            }
+            start.countDown();
+            int checked = 0;
+            for (Future<Integer> result : results) {
+                checked += result.get();
+            }
+            assertEquals(THREADS * REQUESTS_PER_THREAD, checked);
+        } finally {
+            clients.shutdownNow();
+        }
+        assertTrue("Max in flight " + maxInFlight.get(), maxInFlight.get() <= MAX_CONCURRENT_REQUESTS);
+        assertTrue("The requests never overlapped", maxInFlight.get() > 1);
+    }
+}
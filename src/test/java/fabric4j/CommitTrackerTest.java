@@ -0,0 +1,115 @@
+package fabric4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import protos.Openchain.Transaction;
+
+/**
+ * The Class CommitTrackerTest.
+ *
+ * Follows a stub peer that reports a block in its height but answers 404 for
+ * it a few times, as a lagging peer behind a load balancer would, and checks
+ * that the tracker reads the block again instead of skipping its
+ * transactions.
+ *
+ * @author Quentin Le Sceller
+ */
+public class CommitTrackerTest {
+
+    /** The height of the stub peer. */
+    private static final int HEIGHT = 3;
+
+    /** The block holding the tracked transaction. */
+    private static final int MISSING_BLOCK = 2;
+
+    /** The number of times the stub peer does not find the block. */
+    private static final int MISSES = 2;
+
+    /** The stub peer. */
+    private HttpServer server;
+
+    /** The executor of the stub peer. */
+    private ExecutorService serverExecutor;
+
+    /** The number of requests for the missing block. */
+    private final AtomicInteger missingBlockRequests = new AtomicInteger();
+
+    @BeforeClass
+    public static void disableNagle() {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    @Before
+    public void startPeer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(0), 0);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.createContext("/chain", this::serve);
+        server.start();
+    }
+
+    @After
+    public void stopPeer() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    /**
+     * Answers the height, or a block whose only transaction has the block
+     * number as uuid. The missing block is not found the first times.
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            int status = 200;
+            String body;
+            if (path.startsWith("/chain/blocks/")) {
+                int blockNumber = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+                if (blockNumber == MISSING_BLOCK && missingBlockRequests.incrementAndGet() <= MISSES) {
+                    status = 404;
+                    body = "{\"Error\":\"Not found\"}";
+                } else {
+                    body = "{\"stateHash\":\"aGFzaA==\",\"transactions\":[{\"uuid\":\"" + blockNumber + "\"}]}";
+                }
+            } else {
+                body = "{\"height\":" + HEIGHT + "}";
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Test
+    public void blockNotFoundBelowTheHeightIsReadAgain() throws Exception {
+        Blockchain blockchain = Blockchain.newBuilder().setHost("localhost").setPort(server.getAddress().getPort())
+                .setReadTimeout(10000).setAlertJSONNotFound(false).build();
+        try (CommitTracker tracker = new CommitTracker(blockchain, 1, 20)) {
+            Transaction transaction = tracker.track(String.valueOf(MISSING_BLOCK), 10, TimeUnit.SECONDS).get();
+            assertEquals(String.valueOf(MISSING_BLOCK), transaction.getUuid());
+            assertTrue("Block requests " + missingBlockRequests.get(), missingBlockRequests.get() > MISSES);
+        }
+    }
+}